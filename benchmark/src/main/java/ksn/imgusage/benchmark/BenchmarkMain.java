@@ -0,0 +1,30 @@
+package ksn.imgusage.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import ksn.imgusage.utils.MapperFilter;
+
+/** JMH launcher: the command line of <code>org.openjdk.jmh.Main</code>, plus
+ * <br> - {@link TabBenchmark} over all filter tabs (unless <code>-p tab=...</code> is specified);
+ * <br> - GC profiler for the allocation rate (unless any <code>-prof</code> is specified). */
+public final class BenchmarkMain {
+    private BenchmarkMain() {}
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+        if (!cmdOptions.getParameter("tab").hasValue())
+            options.param("tab", MapperFilter.getAllTabNames().toArray(new String[0]));
+        if (cmdOptions.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+
+        new Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,160 @@
+package ksn.imgusage.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ksn.imgusage.tabs.opencv.InitLib;
+import ksn.imgusage.utils.OpenCvHelper;
+
+/** Mat &lt;-&gt; BufferedImage conversions of all supported pixel formats.
+ * <br> Each trial fails if any conversion went through the PNG codec (slow path of {@link OpenCvHelper}). */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvertBenchmark {
+
+    static {
+        InitLib.loadOpenCV();
+    }
+
+    private static void checkNoUniversalConversions() {
+        long cnt = OpenCvHelper.getUniversalConversionCount();
+        if (cnt != 0)
+            throw new IllegalStateException("Conversions through PNG codec: " + cnt);
+    }
+
+    private static int[] parseSize(String size) {
+        String[] wh = size.split("x");
+        return new int[] { Integer.parseInt(wh[0]), Integer.parseInt(wh[1]) };
+    }
+
+    /** source Mat of all depths / channels, used in pipelines */
+    @State(Scope.Thread)
+    public static class MatState {
+        @Param({ "GRAY_8UC1", "BGR_8UC3", "BGRA_8UC4", "GRAY_16UC1", "BGR_16UC3", "BGRA_16UC4", "GRAY_32FC1", "BGR_32FC3", "BGRA_32FC4" })
+        public String format;
+        @Param({ "1920x1080" })
+        public String size;
+
+        Mat mat;
+        BufferedImage reuse;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            int[] wh = parseSize(size);
+            int type;
+            switch (format) {
+            case "GRAY_8UC1" : type = CvType.CV_8UC1 ; break;
+            case "BGR_8UC3"  : type = CvType.CV_8UC3 ; break;
+            case "BGRA_8UC4" : type = CvType.CV_8UC4 ; break;
+            case "GRAY_16UC1": type = CvType.CV_16UC1; break;
+            case "BGR_16UC3" : type = CvType.CV_16UC3; break;
+            case "BGRA_16UC4": type = CvType.CV_16UC4; break;
+            case "GRAY_32FC1": type = CvType.CV_32FC1; break;
+            case "BGR_32FC3" : type = CvType.CV_32FC3; break;
+            case "BGRA_32FC4": type = CvType.CV_32FC4; break;
+            default: throw new IllegalArgumentException("Unknown format " + format);
+            }
+            mat = new Mat(wh[1], wh[0], type);
+            if (CvType.depth(type) == CvType.CV_32F)
+                Core.randu(mat, 0, 1);
+            else
+                Core.randu(mat, 0, (CvType.depth(type) == CvType.CV_8U) ? 255 : 65535);
+            reuse = OpenCvHelper.toImage(mat);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            checkNoUniversalConversions();
+        }
+    }
+
+    /** source BufferedImage of all predefined types */
+    @State(Scope.Thread)
+    public static class ImageState {
+        @Param({ "INT_RGB", "INT_BGR", "INT_ARGB", "INT_ARGB_PRE", "3BYTE_BGR", "4BYTE_ABGR", "4BYTE_ABGR_PRE", "BYTE_GRAY", "USHORT_GRAY", "BYTE_INDEXED", "BYTE_BINARY", "USHORT_565_RGB" })
+        public String format;
+        @Param({ "1920x1080" })
+        public String size;
+
+        BufferedImage image;
+        Mat reuse;
+
+        @Setup(Level.Trial)
+        public void setup() throws ReflectiveOperationException {
+            int[] wh = parseSize(size);
+            int type = BufferedImage.class.getField("TYPE_" + format).getInt(null);
+            image = new BufferedImage(wh[0], wh[1], type);
+            Random rnd = new Random(0);
+            for (int y = 0; y < wh[1]; ++y)
+                for (int x = 0; x < wh[0]; ++x)
+                    image.setRGB(x, y, rnd.nextInt());
+            reuse = OpenCvHelper.fromImage(image);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            checkNoUniversalConversions();
+        }
+    }
+
+    /** images, as they are read by FirstTab */
+    @State(Scope.Thread)
+    public static class ExampleImagesState {
+        final List<BufferedImage> images = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            File[] files = new File("exampleImages").listFiles((dir, name) -> name.matches("(?i).+\\.(png|jpe?g|bmp)"));
+            if (files != null)
+                for (File file : files) {
+                    BufferedImage img = ImageIO.read(file);
+                    if (img != null)
+                        images.add(img);
+                }
+            if (images.isEmpty()) // see task downloadExampleImage
+                images.add(OpenCvHelper.toImage(new Mat(768, 1024, CvType.CV_8UC3, new Scalar(0, 128, 255))));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            checkNoUniversalConversions();
+        }
+    }
+
+    @Benchmark
+    public BufferedImage matToImage(MatState state) {
+        return OpenCvHelper.toImage(state.mat, state.reuse);
+    }
+
+    @Benchmark
+    public Mat imageToMat(ImageState state) {
+        return OpenCvHelper.fromImage(state.image, state.reuse);
+    }
+
+    @Benchmark
+    public void exampleImagesRoundTrip(ExampleImagesState state, Blackhole bh) {
+        for (BufferedImage img : state.images) {
+            Mat mat = OpenCvHelper.fromImage(img);
+            bh.consume(OpenCvHelper.toImage(mat));
+            mat.release();
+        }
+    }
+
+}
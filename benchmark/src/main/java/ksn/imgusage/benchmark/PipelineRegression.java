@@ -0,0 +1,236 @@
+package ksn.imgusage.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ksn.imgusage.engine.Pipeline;
+import ksn.imgusage.tabs.opencv.InitLib;
+import ksn.imgusage.type.PipelineItem;
+import ksn.imgusage.utils.JsonHelper;
+
+/** End-to-end regression benchmark of the saved pipelines (by default - <code>exampleImages/*.json</code>).
+ * <br> Each pipeline is applied N times headless to its source image; the per-stage and total latency distributions are saved to JSON report.
+ * <br> If the baseline report exists, the median latency of each stage is compared with the baseline:
+ *      the process fails when any stage is slower by more than the threshold. */
+public final class PipelineRegression {
+    private PipelineRegression() {}
+
+    static {
+        System.setProperty(org.slf4j.impl.SimpleLogger.DEFAULT_LOG_LEVEL_KEY  , "INFO");
+        System.setProperty(org.slf4j.impl.SimpleLogger.SHOW_DATE_TIME_KEY     , "true");
+        System.setProperty(org.slf4j.impl.SimpleLogger.DATE_TIME_FORMAT_KEY   , "HH:mm:ss:SSS");
+        System.setProperty(org.slf4j.impl.SimpleLogger.SHOW_SHORT_LOG_NAME_KEY, "true");
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineRegression.class);
+
+    private static final String USAGE =
+        "Usage: [<pipeline.json>...] [-runs <N>] [-warmup <N>] [-report <file>] [-baseline <file>] [-threshold <percent>] [-minDelta <ms>] [-updateBaseline]\n" +
+        "  <pipeline.json>  - pipelines to measure (default - exampleImages/*.json)\n" +
+        "  -runs            - measured runs of each pipeline (default 20)\n" +
+        "  -warmup          - not measured runs of each pipeline (default 3)\n" +
+        "  -report          - output report (default build/pipelineRegression.json)\n" +
+        "  -baseline        - baseline report (default benchmark/pipelineBaseline.json); not compared if missing\n" +
+        "  -threshold       - allowed slowdown of the median latency of a stage, in percent (default 10)\n" +
+        "  -minDelta        - ignore slowdown less than this, in milliseconds (default 1.0)\n" +
+        "  -updateBaseline  - save the report as the new baseline, without comparing\n";
+
+    private int     runs      = 20;
+    private int     warmup    = 3;
+    private File    report    = new File("build", "pipelineRegression.json");
+    private File    baseline  = new File("benchmark", "pipelineBaseline.json");
+    private double  threshold = 10;
+    private double  minDelta  = 1.0;
+    private boolean updateBaseline;
+    private final List<File> jsonFiles = new ArrayList<>();
+
+    public static void main(String[] args) {
+        PipelineRegression regression = new PipelineRegression();
+        try {
+            regression.parseArgs(args);
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        try {
+            InitLib.loadOpenCV();
+        } catch (Exception ex) {
+            logger.error("Can not load openCV library", ex);
+            System.exit(2);
+            return;
+        }
+
+        List<String> regressions;
+        try {
+            regressions = regression.run();
+        } catch (Exception ex) {
+            logger.error("Pipeline regression failed", ex);
+            System.exit(3);
+            return;
+        }
+
+        if (!regressions.isEmpty()) {
+            regressions.forEach(logger::error);
+            System.exit(4);
+        }
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (!arg.startsWith("-")) {
+                jsonFiles.add(new File(arg));
+                continue;
+            }
+            if ("-updateBaseline".equals(arg)) {
+                updateBaseline = true;
+                continue;
+            }
+            if (i + 1 >= args.length)
+                throw new IllegalArgumentException("No value of " + arg);
+            String value = args[++i];
+            switch (arg) {
+            case "-runs"     : runs      = Integer.parseInt(value);     break;
+            case "-warmup"   : warmup    = Integer.parseInt(value);     break;
+            case "-report"   : report    = new File(value);             break;
+            case "-baseline" : baseline  = new File(value);             break;
+            case "-threshold": threshold = Double.parseDouble(value);   break;
+            case "-minDelta" : minDelta  = Double.parseDouble(value);   break;
+            default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (runs < 1)
+            throw new IllegalArgumentException("Bad number of runs " + runs);
+
+        if (jsonFiles.isEmpty()) {
+            File[] files = new File("exampleImages").listFiles((dir, name) -> name.endsWith(".json"));
+            if (files != null) {
+                Arrays.sort(files);
+                jsonFiles.addAll(Arrays.asList(files));
+            }
+        }
+        if (jsonFiles.isEmpty())
+            throw new IllegalArgumentException("No pipelines");
+    }
+
+    /** @return descriptions of regressions */
+    private List<String> run() throws IOException {
+        RegressionReport current = new RegressionReport();
+        current.created = LocalDateTime.now().toString();
+        current.warmup  = warmup;
+        current.runs    = runs;
+        for (File jsonFile : jsonFiles)
+            current.pipelines.add(measure(jsonFile));
+
+        save(current, report);
+        logger.info("Report saved to {}", report);
+        if (updateBaseline) {
+            save(current, baseline);
+            logger.info("Baseline saved to {}", baseline);
+            return new ArrayList<>();
+        }
+
+        if (!baseline.isFile()) {
+            logger.warn("No baseline {}: nothing to compare (see -updateBaseline)", baseline);
+            return new ArrayList<>();
+        }
+        String json = new String(Files.readAllBytes(baseline.toPath()), StandardCharsets.UTF_8);
+        return compare(JsonHelper.fromJson(json, RegressionReport.class), current);
+    }
+
+    private RegressionReport.PipelineResult measure(File jsonFile) {
+        RegressionReport.PipelineResult result = new RegressionReport.PipelineResult();
+        result.pipeline = jsonFile.getName();
+        try (Pipeline pipeline = Pipeline.load(jsonFile)) {
+            File imageFile = pipeline.getImageFile();
+            if (imageFile == null)
+                throw new IllegalArgumentException("No source image in pipeline");
+            result.image = imageFile.getName();
+
+            Mat source = Imgcodecs.imread(imageFile.getAbsolutePath(), Imgcodecs.IMREAD_UNCHANGED);
+            if (source.empty())
+                throw new IllegalArgumentException("Can`t read image " + imageFile + " (see task downloadExampleImage)");
+
+            List<PipelineItem> items = pipeline.getItems();
+            long[]   stageNanos = new long[items.size()];
+            long[][] samples    = new long[items.size()][runs];
+            long[]   total      = new long[runs];
+            for (int i = 0; i < warmup; ++i)
+                pipeline.apply(source, stageNanos);
+            for (int i = 0; i < runs; ++i) {
+                long start = System.nanoTime();
+                pipeline.apply(source, stageNanos);
+                total[i] = System.nanoTime() - start;
+                for (int s = 0; s < stageNanos.length; ++s)
+                    samples[s][i] = stageNanos[s];
+            }
+
+            result.total = new RegressionReport.Stats(total);
+            for (int s = 0; s < items.size(); ++s) {
+                RegressionReport.Stage stage = new RegressionReport.Stage();
+                stage.index   = s;
+                stage.tabName = items.get(s).tabName;
+                stage.latency = new RegressionReport.Stats(samples[s]);
+                result.stages.add(stage);
+            }
+            logger.info("{}: p50={} ms, p90={} ms", result.pipeline, result.total.p50, result.total.p90);
+        } catch (Exception ex) {
+            logger.error("{}: failed", jsonFile, ex);
+            result.error = String.valueOf(ex);
+        }
+        return result;
+    }
+
+    private List<String> compare(RegressionReport base, RegressionReport current) {
+        List<String> regressions = new ArrayList<>();
+        for (RegressionReport.PipelineResult basePipeline : base.pipelines) {
+            if (basePipeline.error != null)
+                continue;
+            RegressionReport.PipelineResult curPipeline = current.findPipeline(basePipeline.pipeline);
+            if (curPipeline == null)
+                continue; // not measured now
+            if (curPipeline.error != null) {
+                regressions.add(String.format("%s: failed: %s", curPipeline.pipeline, curPipeline.error));
+                continue;
+            }
+
+            for (RegressionReport.Stage baseStage : basePipeline.stages) {
+                RegressionReport.Stage curStage = curPipeline.findStage(baseStage.index, baseStage.tabName);
+                if (curStage == null) {
+                    logger.warn("{}: stage {} {} is changed, not compared", curPipeline.pipeline, baseStage.index, baseStage.tabName);
+                    continue;
+                }
+                double was = baseStage.latency.p50;
+                double now =  curStage.latency.p50;
+                if ((now - was > minDelta) && (now > was * (1 + threshold / 100)))
+                    regressions.add(String.format("%s: stage %d %s: p50 %.2f ms -> %.2f ms (+%.0f%%)",
+                                                  curPipeline.pipeline, baseStage.index, baseStage.tabName,
+                                                  was, now, (was > 0) ? (now / was - 1) * 100 : Double.POSITIVE_INFINITY));
+            }
+        }
+        logger.info("Compared with baseline {}: {} regression(s), threshold {}%", baseline, regressions.size(), threshold);
+        return regressions;
+    }
+
+    private static void save(RegressionReport report, File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null)
+            Files.createDirectories(dir.toPath());
+        Files.write(file.toPath(), JsonHelper.toJson(report, true).getBytes(StandardCharsets.UTF_8));
+    }
+
+}
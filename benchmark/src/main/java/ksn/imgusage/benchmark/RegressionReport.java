@@ -0,0 +1,80 @@
+package ksn.imgusage.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Machine-readable report of {@link PipelineRegression} (JSON); also used as the baseline */
+public class RegressionReport {
+
+    /** latency distribution, in milliseconds */
+    public static class Stats {
+        public int    count;
+        public double min;
+        public double mean;
+        public double p50;
+        public double p90;
+        public double p99;
+        public double max;
+
+        public Stats() {}
+
+        public Stats(long[] nanos) {
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            count = sorted.length;
+            min   = toMs(sorted[0]);
+            max   = toMs(sorted[sorted.length - 1]);
+            mean  = toMs(Arrays.stream(sorted).sum()) / sorted.length;
+            p50   = percentile(sorted, 50);
+            p90   = percentile(sorted, 90);
+            p99   = percentile(sorted, 99);
+        }
+
+        /** nearest-rank method */
+        private static double percentile(long[] sorted, int p) {
+            int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+            return toMs(sorted[Math.max(0, rank - 1)]);
+        }
+
+        private static double toMs(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    public static class Stage {
+        public int    index;
+        public String tabName;
+        public Stats  latency;
+    }
+
+    public static class PipelineResult {
+        /** name of JSON file */
+        public String pipeline;
+        public String image;
+        /** not null if the pipeline failed */
+        public String error;
+        public Stats  total;
+        public List<Stage> stages = new ArrayList<>();
+
+        public Stage findStage(int index, String tabName) {
+            return stages.stream()
+                .filter(s -> (s.index == index) && tabName.equals(s.tabName))
+                .findAny()
+                .orElse(null);
+        }
+    }
+
+    public String created;
+    public int    warmup;
+    public int    runs;
+    public List<PipelineResult> pipelines = new ArrayList<>();
+
+    public PipelineResult findPipeline(String pipeline) {
+        return pipelines.stream()
+            .filter(p -> pipeline.equals(p.pipeline))
+            .findAny()
+            .orElse(null);
+    }
+
+}
@@ -0,0 +1,147 @@
+package ksn.imgusage.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ksn.imgusage.engine.Pipeline;
+import ksn.imgusage.tabs.FirstTab;
+import ksn.imgusage.tabs.opencv.AddWeightedTab;
+import ksn.imgusage.tabs.opencv.InitLib;
+import ksn.imgusage.type.PipelineItem;
+import ksn.imgusage.type.dto.FirstTabParams;
+import ksn.imgusage.type.dto.FirstTabParams.EFileType;
+import ksn.imgusage.utils.MapperFilter;
+
+/** One stage of the pipeline: each filter tab of {@link MapperFilter}, over the source images of several sizes.
+ * <br> Params of the tab and its input image are taken from the first pipeline of <code>exampleImages/*.json</code> that uses the tab;
+ *      otherwise - default params of the tab over {@link FirstTab#DEFAULT_IMAGE}.
+ * <br> Run by {@link BenchmarkMain}: it sets param <code>tab</code> and adds the GC profiler (allocation rate).
+ * <br> Note: the allocation rate counts only java heap; Mat data is allocated natively. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Thread)
+public class TabBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(TabBenchmark.class);
+    private static final File EXAMPLES_DIR = new File("exampleImages");
+
+    static {
+        InitLib.loadOpenCV();
+    }
+
+    /** full name of filter tab; all names - see {@link MapperFilter#getAllTabNames()} */
+    @Param({ "OpenCV:GaussianBlur" })
+    public String tab;
+    /** size of the input image of the stage, in megapixels */
+    @Param({ "0.5", "2", "8", "20", "50" })
+    public double megapixels;
+
+    private Pipeline pipeline;
+    private Mat input;
+
+    /** place of the tab in the pipeline */
+    private static class Usage {
+        File jsonFile;
+        List<PipelineItem> items;
+        int index;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Usage usage = findUsage(tab);
+        logger.info("{}: params from {}", tab, (usage.jsonFile == null) ? "defaults" : usage.jsonFile.getName());
+
+        // AddWeighted mixes the results of two previous stages, so the previous stage is measured together with it
+        int context = AddWeightedTab.TAB_NAME.equals(tab) ? 1 : 0;
+        int start = Math.max(1, usage.index - context);
+
+        File imageFile = ((FirstTabParams)usage.items.get(0).params).imageFile;
+        Mat source = Imgcodecs.imread(imageFile.getAbsolutePath());
+        if (source.empty())
+            throw new IllegalStateException("Can`t read image " + imageFile + " (see task downloadExampleImage)");
+
+        // input of the stage: result of the previous stages of example pipeline
+        Mat prefixResult;
+        if (start == 1) {
+            prefixResult = source;
+        } else {
+            try (Pipeline prefix = Pipeline.of(new ArrayList<>(usage.items.subList(0, start)))) {
+                prefixResult = prefix.apply(source).clone();
+            }
+        }
+        input = resize(prefixResult, megapixels);
+
+        List<PipelineItem> stageItems = new ArrayList<>();
+        stageItems.add(usage.items.get(0));
+        stageItems.addAll(usage.items.subList(start, usage.index + 1));
+        pipeline = Pipeline.of(stageItems);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pipeline.close();
+        input.release();
+    }
+
+    @Benchmark
+    public Mat stage() {
+        return pipeline.apply(input);
+    }
+
+    private static Usage findUsage(String tabName) throws IOException {
+        if (MapperFilter.getTabClass(tabName) == null)
+            throw new IllegalArgumentException("Not supported filter " + tabName);
+
+        File[] files = EXAMPLES_DIR.listFiles((dir, name) -> name.endsWith(".json"));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                List<PipelineItem> items = Pipeline.loadItems(file);
+                for (int i = 1; i < items.size(); ++i)
+                    if (tabName.equals(items.get(i).tabName)) {
+                        Usage usage = new Usage();
+                        usage.jsonFile = file;
+                        usage.items    = items;
+                        usage.index    = i;
+                        return usage;
+                    }
+            }
+        }
+
+        // not used in examples: default params
+        PipelineItem first = new PipelineItem();
+        first.tabName = FirstTab.TAB_NAME;
+        first.params  = new FirstTabParams(FirstTab.DEFAULT_IMAGE, EFileType.IMAGE, false);
+        PipelineItem stage = new PipelineItem();
+        stage.tabName = tabName;
+
+        Usage usage = new Usage();
+        usage.items = Arrays.asList(first, stage);
+        usage.index = 1;
+        return usage;
+    }
+
+    private static Mat resize(Mat src, double megapixels) {
+        double scale = Math.sqrt(megapixels * 1_000_000 / src.total());
+        Mat dst = new Mat();
+        Imgproc.resize(src, dst, new Size(Math.round(src.cols() * scale), Math.round(src.rows() * scale)),
+                       0, 0, (scale < 1) ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+        return dst;
+    }
+
+}
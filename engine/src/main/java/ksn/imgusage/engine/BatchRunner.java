@@ -0,0 +1,285 @@
+package ksn.imgusage.engine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ksn.imgusage.tabs.opencv.MserTab;
+import ksn.imgusage.type.TextLayout;
+import ksn.imgusage.utils.JsonHelper;
+
+/** Data-parallel runner of one pipeline over many images.
+ * <br> Each worker thread uses its own {@link Pipeline} instance (filters like CascadeClassifier or MSER are not thread safe). */
+public class BatchRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchRunner.class);
+
+    private static final List<String> IMAGE_EXTENSIONS = Arrays.asList("png", "jpg", "jpeg", "bmp", "tif", "tiff", "webp");
+
+    /** Statistics of batch run */
+    public static class Report {
+        public final int total;
+        public final int failed;
+        public final long wallTimeNanos;
+        /** per-image latencies of succeeded images, sorted */
+        public final long[] latencyNanos;
+
+        Report(int total, int failed, long wallTimeNanos, long[] latencyNanos) {
+            this.total = total;
+            this.failed = failed;
+            this.wallTimeNanos = wallTimeNanos;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public double imagesPerSec() {
+            return (wallTimeNanos <= 0) ? 0 : (total - failed) * 1e9 / wallTimeNanos;
+        }
+
+        /** latency percentile (nearest-rank), in milliseconds */
+        public double percentileMs(double percent) {
+            if (latencyNanos.length == 0)
+                return 0;
+            int rank = (int)Math.ceil(percent / 100 * latencyNanos.length);
+            int idx = Math.max(0, Math.min(latencyNanos.length - 1, rank - 1));
+            return latencyNanos[idx] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "{ images=%d, failed=%d, time=%.2fs, throughput=%.2f img/s, p50=%.1fms, p99=%.1fms }",
+                    total,
+                    failed,
+                    wallTimeNanos / 1e9,
+                    imagesPerSec(),
+                    percentileMs(50),
+                    percentileMs(99));
+        }
+    }
+
+    private final String pipelineJson;
+    private final Path pipelineDir;
+    private final int threads;
+    private final File outputDir;
+    private final File layoutFile;
+    /** JSON-lines output of text layouts; opened while running */
+    private BufferedWriter layoutWriter;
+
+    /**
+     * @param jsonFile  pipeline JSON file (saved by {@link ksn.imgusage.filtersdemo.ImageFilterExamples})
+     * @param threads   count of worker threads; 0 - all cores
+     * @param outputDir directory for result images; null - don`t save results
+     */
+    public BatchRunner(File jsonFile, int threads, File outputDir) throws IOException {
+        this(jsonFile, threads, outputDir, null);
+    }
+
+    /**
+     * @param jsonFile   pipeline JSON file (saved by {@link ksn.imgusage.filtersdemo.ImageFilterExamples})
+     * @param threads    count of worker threads; 0 - all cores
+     * @param outputDir  directory for result images; null - don`t save results
+     * @param layoutFile JSON-lines file for text layouts of the MSER stage ({@link TextLayout} per line, per image); null - don`t save layouts.
+     *                   Without outputDir, the pipeline is run only up to the MSER stage, without rendering.
+     */
+    public BatchRunner(File jsonFile, int threads, File outputDir, File layoutFile) throws IOException {
+        this.pipelineJson = new String(Files.readAllBytes(jsonFile.toPath()), StandardCharsets.UTF_8);
+        this.pipelineDir  = jsonFile.toPath().toAbsolutePath().getParent();
+        this.threads      = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+        this.outputDir    = outputDir;
+        this.layoutFile   = layoutFile;
+
+        try (Pipeline pipeline = Pipeline.fromJson(pipelineJson, pipelineDir)) { // fail fast: check pipeline is valid
+            if ((layoutFile != null) && !pipeline.hasTextLayout())
+                throw new IllegalArgumentException("Pipeline has no " + MserTab.TAB_NAME + " stage: no text layout");
+        }
+    }
+
+    /** collect input images
+     * @param dirOrGlob directory, or glob pattern of files (e.g. <code>scans/**&#47;*.jpg</code>) */
+    public static List<File> findImages(String dirOrGlob) throws IOException {
+        Path dir = Path.of(dirOrGlob);
+        PathMatcher matcher;
+        int depth;
+        if (!containsGlob(dirOrGlob) && Files.isDirectory(dir)) {
+            matcher = path -> IMAGE_EXTENSIONS.contains(getExtension(path));
+            depth = 1;
+        } else {
+            // split to base directory and glob pattern
+            Path base = Path.of("");
+            for (Path part : dir) {
+                if (containsGlob(part.toString()))
+                    break;
+                base = base.resolve(part);
+            }
+            if (dir.isAbsolute())
+                base = dir.getRoot().resolve(base);
+            dir = base;
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + dirOrGlob);
+            depth = Integer.MAX_VALUE;
+        }
+
+        try (Stream<Path> files = Files.walk(dir.toString().isEmpty() ? Path.of(".") : dir, depth)) {
+            return files
+                .filter(Files::isRegularFile)
+                .filter(path -> matcher.matches(path) || matcher.matches(path.normalize()))
+                .sorted()
+                .map(Path::toFile)
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean containsGlob(String path) {
+        return path.chars().anyMatch(ch -> "*?[{".indexOf(ch) >= 0);
+    }
+
+    private static String getExtension(Path path) {
+        String name = path.getFileName().toString();
+        int pos = name.lastIndexOf('.');
+        return (pos < 0) ? "" : name.substring(pos + 1).toLowerCase(Locale.ROOT);
+    }
+
+    public Report run(List<File> images) throws InterruptedException {
+        if ((outputDir != null) && !outputDir.exists() && !outputDir.mkdirs())
+            throw new IllegalArgumentException("Can`t create output directory " + outputDir);
+        if (layoutFile != null)
+            try {
+                File dir = layoutFile.getAbsoluteFile().getParentFile();
+                if (dir != null)
+                    Files.createDirectories(dir.toPath());
+                layoutWriter = Files.newBufferedWriter(layoutFile.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("Can`t create layout file " + layoutFile, ex);
+            }
+
+        List<Pipeline> allPipelines = new CopyOnWriteArrayList<>();
+        ThreadLocal<Pipeline> pipelines = ThreadLocal.withInitial(() -> {
+            Pipeline pipeline = Pipeline.fromJson(pipelineJson, pipelineDir);
+            allPipelines.add(pipeline);
+            return pipeline;
+        });
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "batch-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Batch: {} images, {} threads", images.size(), threads);
+
+        long[] latencies = new long[images.size()];
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>(images.size());
+            for (int i = 0; i < images.size(); ++i) {
+                final int idx = i;
+                futures.add(executor.submit(() -> {
+                    File imageFile = images.get(idx);
+                    try {
+                        latencies[idx] = applyTo(pipelines.get(), imageFile);
+                    } catch (Exception ex) {
+                        latencies[idx] = -1;
+                        failed.incrementAndGet();
+                        logger.error("Image {} failed: {}", imageFile, ex.toString());
+                    }
+                    int cnt = done.incrementAndGet();
+                    if ((cnt % 100) == 0)
+                        logger.info("Batch: processed {}/{}", cnt, images.size());
+                }));
+            }
+            for (Future<?> future : futures)
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    logger.error("Batch task failed", ex.getCause());
+                }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            allPipelines.forEach(Pipeline::close);
+            closeLayoutWriter();
+        }
+        long wallTime = System.nanoTime() - start;
+
+        long[] succeeded = Arrays.stream(latencies)
+            .filter(t -> t >= 0)
+            .sorted()
+            .toArray();
+        Report report = new Report(images.size(), failed.get(), wallTime, succeeded);
+        logger.info("Batch: {}", report);
+        return report;
+    }
+
+    /** @return latency in nanoseconds */
+    private long applyTo(Pipeline pipeline, File imageFile) {
+        long start = System.nanoTime();
+
+        Mat source = Imgcodecs.imread(imageFile.getAbsolutePath(), Imgcodecs.IMREAD_UNCHANGED);
+        if (source.empty())
+            throw new IllegalArgumentException("Can`t read image " + imageFile);
+
+        if ((outputDir == null) && (layoutWriter != null)) {
+            // only the data is requested
+            writeLayout(imageFile, pipeline.applyForLayout(source));
+            return System.nanoTime() - start;
+        }
+
+        Mat result = pipeline.apply(source);
+        if (layoutWriter != null)
+            writeLayout(imageFile, pipeline.getTextLayout());
+
+        if (outputDir != null) {
+            String name = imageFile.getName();
+            int pos = name.lastIndexOf('.');
+            File outFile = new File(outputDir, ((pos < 0) ? name : name.substring(0, pos)) + ".png");
+            if (!Imgcodecs.imwrite(outFile.getAbsolutePath(), result))
+                throw new IllegalArgumentException("Can`t write image " + outFile);
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private void writeLayout(File imageFile, TextLayout layout) {
+        if (layout == null)
+            throw new IllegalStateException("No text layout of image " + imageFile);
+        layout.image = imageFile.getPath();
+        String line = JsonHelper.toJson(layout, false);
+        synchronized (layoutWriter) {
+            try {
+                layoutWriter.write(line);
+                layoutWriter.newLine();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Can`t write layout of image " + imageFile, ex);
+            }
+        }
+    }
+
+    private void closeLayoutWriter() {
+        if (layoutWriter == null)
+            return;
+        try {
+            layoutWriter.close();
+            logger.info("Batch: text layouts saved to {}", layoutFile);
+        } catch (IOException ex) {
+            logger.error("Can`t close layout file {}", layoutFile, ex);
+        }
+        layoutWriter = null;
+    }
+
+}
@@ -0,0 +1,90 @@
+package ksn.imgusage.engine;
+
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.util.List;
+
+import javax.swing.JPanel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ksn.imgusage.tabs.ITab;
+import ksn.imgusage.tabs.ITabManager;
+
+/** Tab manager without UI: only links the pipeline stages and collects errors */
+class HeadlessTabManager implements ITabManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeadlessTabManager.class);
+
+    private final List<ITab<?>> tabs;
+    private Exception firstError;
+
+    HeadlessTabManager(List<ITab<?>> tabs) {
+        this.tabs = tabs;
+    }
+
+    @Override
+    public ITab<?> getPrevTab(ITab<?> self) {
+        int pos = tabs.indexOf(self);
+        if (pos < 1)
+            return null;
+        return tabs.get(pos - 1);
+    }
+
+    @Override
+    public ITab<?> getNextTab(ITab<?> self) {
+        int pos = tabs.indexOf(self);
+        if (pos < 0)
+            return null;
+        if (pos >= tabs.size() - 1)
+            return null;
+        return tabs.get(pos + 1);
+    }
+
+    @Override
+    public void onCancel() {
+        // no UI
+    }
+
+    @Override
+    public void onAddNewFilter() {
+        // no UI
+    }
+
+    @Override
+    public void onRemoveFilter(ITab<?> tab) {
+        // no UI
+    }
+
+    @Override
+    public void onImgPanelDraw(JPanel imagePanel, Graphics2D g, Logger logger) {
+        // no UI
+    }
+
+    @Override
+    public void onError(Exception ex, ITab<?> tab, Component from) {
+        logger.error("Stage {}: {}", (tab == null) ? null : tab.getName(), ex.toString());
+        if (firstError == null)
+            firstError = (tab == null)
+                ? ex
+                : new IllegalStateException("Pipeline stage '" + tab.getName() + "' failed", ex);
+    }
+
+    @Override
+    public boolean isHeadless() {
+        return true;
+    }
+
+    /** throw the first error reported by the stages since the last check */
+    void checkError() {
+        Exception ex = firstError;
+        firstError = null;
+        if (ex == null)
+            return;
+        if (ex instanceof RuntimeException)
+            throw (RuntimeException)ex;
+        throw new IllegalStateException(ex);
+    }
+
+}
@@ -0,0 +1,205 @@
+package ksn.imgusage.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.core.GenericType;
+
+import org.opencv.core.Mat;
+
+import ksn.imgusage.tabs.BaseTab;
+import ksn.imgusage.tabs.FirstTab;
+import ksn.imgusage.tabs.ITab;
+import ksn.imgusage.tabs.ITabParams;
+import ksn.imgusage.tabs.opencv.MserTab;
+import ksn.imgusage.tabs.opencv.PerspectiveTransformTab;
+import ksn.imgusage.type.PipelineItem;
+import ksn.imgusage.type.TextLayout;
+import ksn.imgusage.type.dto.FirstTabParams;
+import ksn.imgusage.utils.ImgHelper;
+import ksn.imgusage.utils.JsonHelper;
+import ksn.imgusage.utils.MapperFilter;
+
+/** Headless pipeline: the filter tabs of a saved JSON pipeline, used without Swing UI.
+ * <br> Not thread safe: use one instance per thread. */
+public final class Pipeline implements AutoCloseable {
+
+    private final List<PipelineItem> items;
+    private final List<ITab<?>> tabs = new ArrayList<>();
+    private final HeadlessTabManager tabManager = new HeadlessTabManager(tabs);
+
+    private Pipeline(List<PipelineItem> items) {
+        if (items.isEmpty() || !FirstTab.TAB_NAME.equals(items.get(0).tabName))
+            throw new IllegalArgumentException("FirstTab mus be instanceof " + FirstTab.class.getName());
+
+        this.items = items;
+        for (PipelineItem item : items)
+            addTab(item.tabName, item.params);
+    }
+
+    /** load pipeline from JSON file (saved by {@link ksn.imgusage.filtersdemo.ImageFilterExamples}) */
+    public static Pipeline load(File jsonFile) throws IOException {
+        return new Pipeline(loadItems(jsonFile));
+    }
+
+    /** @param baseDir directory for resolving the relative path of source image file */
+    public static Pipeline fromJson(String json, Path baseDir) {
+        return new Pipeline(parseItems(json, baseDir));
+    }
+
+    /** @param items pipeline items; the first one must be of {@link FirstTab} */
+    public static Pipeline of(List<PipelineItem> items) {
+        return new Pipeline(items);
+    }
+
+    /** read pipeline items from JSON file, without creating of tabs */
+    public static List<PipelineItem> loadItems(File jsonFile) throws IOException {
+        String json = new String(Files.readAllBytes(jsonFile.toPath()), StandardCharsets.UTF_8);
+        return parseItems(json, jsonFile.toPath().toAbsolutePath().getParent());
+    }
+
+    private static List<PipelineItem> parseItems(String json, Path baseDir) {
+        List<PipelineItem> items = JsonHelper.fromJson(json, new GenericType<List<PipelineItem>>() {});
+        if (items == null)
+            throw new IllegalArgumentException("Empty pipeline");
+
+        // restore full path from relative
+        if (!items.isEmpty() && (items.get(0).params instanceof FirstTabParams)) {
+            FirstTabParams firstParams = (FirstTabParams)items.get(0).params;
+            if ((firstParams.imageFile != null) && (baseDir != null))
+                firstParams.imageFile = baseDir.resolve(firstParams.imageFile.toPath()).toFile();
+        }
+
+        return items;
+    }
+
+    private <TTabParams extends ITabParams> void addTab(String filterTabFullName, TTabParams params) {
+        Class<? extends ITab<?>> tabClass = MapperFilter.getTabClass(filterTabFullName);
+        if (tabClass == null)
+            throw new IllegalArgumentException("Not supported filter " + filterTabFullName);
+
+        ITab<TTabParams> newTab;
+        try {
+            @SuppressWarnings("unchecked")
+            Constructor<? extends ITab<TTabParams>> ctor = (Constructor<? extends ITab<TTabParams>>)tabClass.getConstructor();
+            newTab = ctor.newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("Can`t create filter " + filterTabFullName, ex);
+        }
+        if (newTab instanceof PerspectiveTransformTab)
+            ((PerspectiveTransformTab)newTab).setFirstTabSupplier(this::getFirstTab);
+
+        newTab.setManager(tabManager);
+        tabs.add(newTab);
+        newTab.makeTab(params);
+    }
+
+    private FirstTab getFirstTab() {
+        return (FirstTab)tabs.get(0);
+    }
+
+    /** pipeline items with the current params of tabs */
+    public List<PipelineItem> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    /** source image file, saved in pipeline (can be null) */
+    public File getImageFile() {
+        return getFirstTab().getParams().imageFile;
+    }
+
+    /** run all stages of the pipeline over the source image
+     * @return result image of the last stage (don`t modify it: it can be the state of the stage)
+     * @throws IllegalStateException if any stage failed */
+    public Mat apply(Mat source) {
+        return apply(source, null);
+    }
+
+    /** run all stages of the pipeline over the source image, one by one
+     * @param stageNanos out: duration of each stage, in nanoseconds (index - as in {@link #getItems()}); can be null
+     * @return result image of the last stage (don`t modify it: it can be the state of the stage)
+     * @throws IllegalStateException if any stage failed */
+    public Mat apply(Mat source, long[] stageNanos) {
+        setLayoutOnly(false);
+        getFirstTab().setSourceMat(source);
+
+        if (stageNanos != null)
+            for (int i = 0; i < tabs.size(); ++i) {
+                long start = System.nanoTime();
+                ITab<?> tab = tabs.get(i);
+                if (tab instanceof BaseTab)
+                    ((BaseTab<?>)tab).evaluateResult(); // without building of BufferedImage
+                else
+                    tab.getImage();
+                stageNanos[i] = System.nanoTime() - start;
+                tabManager.checkError();
+            }
+
+        ITab<?> lastTab = tabs.get(tabs.size() - 1);
+        Mat result = (lastTab instanceof BaseTab)
+            ? ((BaseTab<?>)lastTab).getImageMat() // without building of BufferedImage
+            : ImgHelper.toMat(lastTab.getImage());
+        tabManager.checkError();
+        if (result == null)
+            throw new IllegalStateException("Pipeline has no result image");
+
+        return result;
+    }
+
+    /** has the pipeline the stage of text layout ({@link MserTab}) */
+    public boolean hasTextLayout() {
+        return findLayoutTab() != null;
+    }
+
+    /** text layout of the last MSER stage, found by the last {@link #apply} (null - no MSER stage) */
+    public TextLayout getTextLayout() {
+        MserTab layoutTab = findLayoutTab();
+        return (layoutTab == null) ? null : layoutTab.getTextLayout();
+    }
+
+    /** Run the stages up to the last MSER stage, without rendering of the MSER result images and without next stages.
+     * @return text layout of the last MSER stage
+     * @throws IllegalStateException if any stage failed, or there is no MSER stage */
+    public TextLayout applyForLayout(Mat source) {
+        MserTab layoutTab = findLayoutTab();
+        if (layoutTab == null)
+            throw new IllegalStateException("Pipeline has no " + MserTab.TAB_NAME + " stage");
+
+        layoutTab.setLayoutOnly(true);
+        getFirstTab().setSourceMat(source);
+        layoutTab.evaluateResult();
+        tabManager.checkError();
+
+        TextLayout layout = layoutTab.getTextLayout();
+        if (layout == null)
+            throw new IllegalStateException("Pipeline has no text layout");
+        return layout;
+    }
+
+    private MserTab findLayoutTab() {
+        for (int i = tabs.size() - 1; i >= 0; --i)
+            if (tabs.get(i) instanceof MserTab)
+                return (MserTab)tabs.get(i);
+        return null;
+    }
+
+    /** only the last MSER stage: the images of previous ones are the source of next stages */
+    private void setLayoutOnly(boolean layoutOnly) {
+        MserTab layoutTab = findLayoutTab();
+        if (layoutTab != null)
+            layoutTab.setLayoutOnly(layoutOnly);
+    }
+
+    @Override
+    public void close() {
+        tabs.forEach(ITab::close);
+    }
+
+}
@@ -0,0 +1,122 @@
+package ksn.imgusage.engine;
+
+import java.io.File;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ksn.imgusage.tabs.opencv.InitLib;
+
+/** Command line runner of saved JSON pipelines (without Swing UI) */
+public final class PipelineCli {
+    private PipelineCli() {}
+
+    static {
+        System.setProperty(org.slf4j.impl.SimpleLogger.DEFAULT_LOG_LEVEL_KEY  , "INFO");
+        System.setProperty(org.slf4j.impl.SimpleLogger.SHOW_DATE_TIME_KEY     , "true");
+        System.setProperty(org.slf4j.impl.SimpleLogger.DATE_TIME_FORMAT_KEY   , "HH:mm:ss:SSS");
+        System.setProperty(org.slf4j.impl.SimpleLogger.SHOW_THREAD_NAME_KEY   , "true");
+        System.setProperty(org.slf4j.impl.SimpleLogger.SHOW_SHORT_LOG_NAME_KEY, "true");
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineCli.class);
+
+    private static final String USAGE =
+        "Usage:\n" +
+        "  run   <pipeline.json> <output image> [<input image>]                   - apply pipeline to single image (default input - image of pipeline)\n" +
+        "  batch <pipeline.json> <input dir | glob> [<output dir>] [-threads <N>] [-layout <file.jsonl>]\n" +
+        "                                                                         - apply pipeline to all images, in parallel (default threads - all cores);\n" +
+        "                                                                           -layout: save text layouts of the MSER stage as JSON-lines\n" +
+        "                                                                           (without output dir - only the layouts, without rendering)\n";
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        try {
+            InitLib.loadOpenCV();
+        } catch (Exception ex) {
+            logger.error("Can not load openCV library", ex);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            switch (args[0]) {
+            case "run":
+                if (args.length < 3)
+                    break;
+                run(new File(args[1]),
+                    new File(args[2]),
+                    (args.length > 3) ? new File(args[3]) : null);
+                return;
+            case "batch":
+                if (args.length < 3)
+                    break;
+                batch(args);
+                return;
+            default:
+                break;
+            }
+        } catch (Exception ex) {
+            logger.error("{} failed", args[0], ex);
+            System.exit(3);
+            return;
+        }
+
+        System.err.println(USAGE);
+        System.exit(1);
+    }
+
+    private static void run(File jsonFile, File outputFile, File inputFile) throws Exception {
+        try (Pipeline pipeline = Pipeline.load(jsonFile)) {
+            if (inputFile == null)
+                inputFile = pipeline.getImageFile();
+
+            Mat source = Imgcodecs.imread(inputFile.getAbsolutePath(), Imgcodecs.IMREAD_UNCHANGED);
+            if (source.empty())
+                throw new IllegalArgumentException("Can`t read image " + inputFile);
+
+            long start = System.nanoTime();
+            Mat result = pipeline.apply(source);
+            logger.info("Pipeline {} applied to {} in {} ms", jsonFile.getName(), inputFile.getName(), (System.nanoTime() - start) / 1_000_000);
+
+            if (!Imgcodecs.imwrite(outputFile.getAbsolutePath(), result))
+                throw new IllegalArgumentException("Can`t write image " + outputFile);
+            logger.info("Result saved to {}", outputFile);
+        }
+    }
+
+    private static void batch(String[] args) throws Exception {
+        File jsonFile = new File(args[1]);
+        String input = args[2];
+        File outputDir = null;
+        File layoutFile = null;
+        int threads = 0;
+        for (int i = 3; i < args.length; ++i) {
+            if ("-threads".equals(args[i]) && (i + 1 < args.length))
+                threads = Integer.parseInt(args[++i]);
+            else
+            if ("-layout".equals(args[i]) && (i + 1 < args.length))
+                layoutFile = new File(args[++i]);
+            else
+                outputDir = new File(args[i]);
+        }
+
+        List<File> images = BatchRunner.findImages(input);
+        if (images.isEmpty())
+            throw new IllegalArgumentException("No images found: " + input);
+
+        BatchRunner.Report report = new BatchRunner(jsonFile, threads, outputDir, layoutFile).run(images);
+        System.out.println(report);
+        if (report.failed > 0)
+            System.exit(4);
+    }
+
+}
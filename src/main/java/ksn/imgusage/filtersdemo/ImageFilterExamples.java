@@ -14,6 +14,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BooleanSupplier;
 
 import javax.swing.*;
@@ -54,7 +55,7 @@ public class ImageFilterExamples {
     private final JFrame frame;
     private JTabbedPane tabPane;
     private BooleanSupplier isScale;
-    private List<ITab<?>> tabs = new ArrayList<>();
+    private List<ITab<?>> tabs = new CopyOnWriteArrayList<>(); // read by filter evaluator thread
     private JWindow errorWindow;
     private Timer timer;
 
@@ -234,7 +235,7 @@ public class ImageFilterExamples {
             return;
 
         ITab<?> tab = tabs.get(i);
-        BufferedImage image = tab.getDrawImage();
+        BufferedImage image = tab.getDrawImageAsync();
         if (image == null)
             return;
 
@@ -260,6 +261,13 @@ public class ImageFilterExamples {
     }
 
     private void onError(Exception ex, ITab<?> tab, Component from) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            // filters are evaluated in background thread
+            Component fromComponent = from;
+            SwingUtilities.invokeLater(() -> onError(ex, tab, fromComponent));
+            return;
+        }
+
         if (from == null)
             from = frame.getRootPane();
 
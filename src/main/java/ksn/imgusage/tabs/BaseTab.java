@@ -5,7 +5,15 @@ import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -17,6 +25,7 @@ import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 
+import org.opencv.core.Mat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,10 +47,38 @@ public abstract class BaseTab<TTabParams extends ITabParams> implements ITab<TTa
 
     private static final int DEBOUNCE_TIMEOUT_MS = 150;
 
+    /** UI mode: filters are evaluated only in this thread (tabs state is not thread safe), never in the EDT */
+    private static final ThreadPoolExecutor EVALUATOR = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+        Thread thread = new Thread(task, "filter-evaluator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** image evaluated for the version of tab state */
+    private static class VersionedImage {
+        final long version;
+        final BufferedImage image;
+        VersionedImage(long version, BufferedImage image) {
+            this.version = version;
+            this.image = image;
+        }
+    }
+
     protected ITabManager tabManager;
-    protected BufferedImage image;
+    protected volatile BufferedImage image;
     protected Runnable imagePanelRepaint;
     private Timer debounceTimer;
+    /** postponed steps of an iterative filter (only for headless mode) */
+    private final Deque<Runnable> headlessSteps = new ArrayDeque<>();
+    /** incremented at each change of params or source image */
+    private final AtomicLong version = new AtomicLong();
+    /** the last good image, shown in UI while the new one is evaluating */
+    private volatile VersionedImage shownImage = new VersionedImage(-1, null);
+    private volatile Future<?> evaluation;
+    /** key of the current image in {@link StageCache}; null - result can`t be reused */
+    private volatile String stageKey;
+    /** profile of the last evaluation */
+    private volatile StageProfile profile;
 
     @Override
     public void setManager(ITabManager tabManager) {
@@ -57,6 +94,22 @@ public abstract class BaseTab<TTabParams extends ITabParams> implements ITab<TTa
         return prevTab.getImage();
     }
 
+    /** get previous tab image as Mat */
+    protected Mat getSourceMat() {
+        ITab<?> source = tabManager.getPrevTab(this);
+        return getSourceMat(source);
+    }
+
+    protected static Mat getSourceMat(ITab<?> source) {
+        if (source instanceof BaseTab)
+            return ((BaseTab<?>)source).getImageMat();
+
+        BufferedImage src = source.getImage();
+        if (src == null)
+            return null;
+        return ImgHelper.toMat(src);
+    }
+
     @Override
     public BufferedImage getDrawImage() {
         return getImage();
@@ -64,35 +117,221 @@ public abstract class BaseTab<TTabParams extends ITabParams> implements ITab<TTa
 
     @Override
     public BufferedImage getImage() {
-        if (image != null)
-            return image;
-
-        BufferedImage src = getSourceImage();
-        if (src == null)
+        if (isUiThread())
+            return image; // never evaluate in the EDT: see getDrawImageAsync
+        if (!evaluateResult())
             return null;
+        return buildImage();
+    }
+
+    /** result of the tab as Mat, without building of the image if it is possible (headless mode) */
+    public Mat getImageMat() {
+        BufferedImage img = getImage();
+        return (img == null) ? null : ImgHelper.toMat(img);
+    }
+
+    /** Evaluate the result of this tab (and previous tabs), without building of the image.
+     * @return false if there is no source image */
+    public final boolean evaluateResult() {
+        if (hasResult())
+            return true;
+        if (isUiThread())
+            return false;
+
+        long ver = version.get(); // before the source image is taken
+        checkInterrupted();
+        if (!evaluateSource())
+            return false;
+        checkInterrupted();
+
+        String key = makeStageKey();
+        StageCache.Entry cached = ((key != null) && isCacheable()) ? StageCache.get(key) : null;
+        if (cached != null) {
+            logger.trace("evaluateResult: from cache");
+            setResultExtra(cached.extra);
+            image = cached.image;
+            stageKey = key;
+            profile = StageProfile.cached(getProfiledResult());
+            return true;
+        }
 
-        JFrame frame = AppInfo.getRootFrame();
         try {
-            frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-
-            try {
-                logger.trace("getImage: applyFilter...");
-                applyFilter();
-                logger.trace("getImage: ...applyFilter");
-            } catch (Exception ex) {
-                logger.error("getImage:", ex);
-                image = ImgHelper.failedImage();
-                tabManager.onError(ex, this, null);
+            logger.trace("evaluateResult: applyFilter...");
+            long allocated = StageProfile.threadAllocatedBytes();
+            long start = System.nanoTime();
+            applyFilter();
+            long applyNanos = System.nanoTime() - start;
+            if (allocated >= 0)
+                allocated = StageProfile.threadAllocatedBytes() - allocated;
+            if (version.get() != ver)
+                throw new CancellationException("Params or source image changed while evaluating");
+            profile = StageProfile.applied(applyNanos, allocated, getProfiledResult());
+            runHeadlessSteps();
+            stageKey = key;
+            if ((key != null) && isCacheable())
+                StageCache.put(key, image, getResultExtra());
+            logger.trace("evaluateResult: ...applyFilter");
+        } catch (Exception ex) {
+            headlessSteps.clear();
+            stageKey = null;
+            if ((ex instanceof CancellationException) || (version.get() != ver)) {
+                // stale result: never keep it
+                resetImage();
+                throw (ex instanceof CancellationException)
+                    ? (CancellationException)ex
+                    : new CancellationException("Evaluation of outdated params failed: " + ex);
             }
-        } finally {
-            frame.setCursor(Cursor.getDefaultCursor());
+            logger.error("evaluateResult:", ex);
+            setResultExtra(null); // the partly processed result must not go to the next tabs
+            image = ImgHelper.failedImage();
+            tabManager.onError(ex, this, null);
         }
+        return true;
+    }
+
+    /** evaluate the result of the previous tab
+     * @return false if there is no source image */
+    protected boolean evaluateSource() {
+        ITab<?> prevTab = tabManager.getPrevTab(this);
+        if (prevTab instanceof BaseTab)
+            return ((BaseTab<?>)prevTab).evaluateResult();
+        return getSourceImage() != null;
+    }
+
+    /** profile of the last evaluation of this tab; null - not evaluated yet */
+    public StageProfile getProfile() {
+        return profile;
+    }
+
+    private Object getProfiledResult() {
+        Object extra = getResultExtra();
+        return (extra != null) ? extra : image;
+    }
+
+    /** is the result of this tab evaluated (the image can be not built yet) */
+    protected boolean hasResult() {
+        return image != null;
+    }
+
+    /** build the image from the tab specific result, at the first request */
+    protected BufferedImage buildImage() {
         return image;
     }
 
+    @Override
+    public BufferedImage getDrawImageAsync() {
+        VersionedImage shown = shownImage;
+        long ver = version.get();
+        if (shown.version == ver)
+            return shown.image;
+
+        boolean debouncing = (debounceTimer != null) && debounceTimer.isRunning();
+        Future<?> current = evaluation;
+        if (!debouncing && ((current == null) || current.isDone()))
+            evaluation = EVALUATOR.submit(() -> evaluate(ver));
+        updateCursor();
+
+        return shown.image; // the last good image
+    }
+
+    private void evaluate(long ver) {
+        try {
+            BufferedImage img = getDrawImage();
+            if (version.get() == ver)
+                shownImage = new VersionedImage(ver, img);
+        } catch (CancellationException ex) {
+            logger.trace("evaluate: {}", ex.getMessage());
+        } catch (Exception ex) {
+            logger.error("evaluate:", ex);
+            tabManager.onError(ex, this, null);
+        } finally {
+            SwingUtilities.invokeLater(() -> {
+                updateCursor();
+                repaint();
+            });
+        }
+    }
+
+    private void updateCursor() {
+        JFrame frame = AppInfo.getRootFrame();
+        if (frame == null)
+            return;
+        Future<?> current = evaluation;
+        frame.setCursor(((current == null) || current.isDone())
+            ? Cursor.getDefaultCursor()
+            : Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+    }
+
+    /** UI mode: is any filter evaluating now (or waiting for evaluation) */
+    protected static boolean isEvaluatorBusy() {
+        return (EVALUATOR.getActiveCount() > 0) || !EVALUATOR.getQueue().isEmpty();
+    }
+
+    private boolean isUiThread() {
+        return !tabManager.isHeadless() && SwingUtilities.isEventDispatchThread();
+    }
+
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("Evaluation interrupted");
+    }
+
     /** apply the filter of the current tab to the image of the previous tab */
     protected abstract void applyFilter();
 
+    /** Key of the result of this tab in {@link StageCache}: previous stage key + name + params of this tab.
+     * <br> Must be overridden if the result depends on anything else; null - don`t use the cache for this and next tabs */
+    protected String makeStageKey() {
+        if (tabManager.isHeadless())
+            return null;
+        String prevKey = getStageKey(tabManager.getPrevTab(this));
+        if (prevKey == null)
+            return null;
+        return StageCache.makeKey(prevKey, getName(), getParams());
+    }
+
+    /** key of the evaluated image of the tab; null - not evaluated or can`t be reused */
+    protected static String getStageKey(ITab<?> tab) {
+        if (!(tab instanceof BaseTab))
+            return null;
+        return ((BaseTab<?>)tab).stageKey;
+    }
+
+    /** put the result of this tab to {@link StageCache} */
+    protected boolean isCacheable() {
+        return true;
+    }
+
+    /** tab specific result (Mat, FastBitmap...), cached along with the image */
+    protected Object getResultExtra() {
+        return null;
+    }
+    protected void setResultExtra(Object extra) {
+        // nothing
+    }
+
+    /** Schedule the next step of an iterative filter.
+     * <br> UI: the step is executed later in the evaluator thread (intermediate results are shown to the user),
+     *          and skipped if the tab was changed in the meantime;
+     * <br> headless: the step is executed synchronously, right after {@link #applyFilter()} */
+    protected final void invokeNextStep(Runnable step) {
+        if (tabManager.isHeadless()) {
+            headlessSteps.addLast(step);
+        } else {
+            long ver = version.get();
+            EVALUATOR.execute(() -> {
+                if (version.get() == ver)
+                    step.run();
+            });
+        }
+    }
+
+    private void runHeadlessSteps() {
+        Runnable step;
+        while ((step = headlessSteps.pollFirst()) != null)
+            step.run();
+    }
+
 
     @Override
     public final void invalidate() {
@@ -100,6 +339,14 @@ public abstract class BaseTab<TTabParams extends ITabParams> implements ITab<TTa
     }
 
     protected final void invalidate(boolean resetMyImage) {
+        markStale();
+        if (isUiThread()) {
+            // the state of tabs is changed only in the evaluator thread
+            EVALUATOR.execute(() -> invalidate(resetMyImage));
+            repaint();
+            return;
+        }
+
         if (resetMyImage)
             resetImage();
         repaint();
@@ -111,22 +358,31 @@ public abstract class BaseTab<TTabParams extends ITabParams> implements ITab<TTa
 
     /** user changed parameters in this tab */
     protected final void invalidateAsync() {
-        resetImage();
+        markStale(); // cancel in-flight evaluation; the last good image is shown until debounce
         UiHelper.debounceExecutor(
             () -> debounceTimer,
             t  -> debounceTimer = t,
             DEBOUNCE_TIMEOUT_MS,
-            () -> {
-                if (image != null)
-                    // already redrawed
-                    return;
-
-                invalidate();
-            },
+            this::invalidate,
             logger);
     }
 
+    /** results of this and next tabs, evaluated before now, are outdated */
+    private void markStale() {
+        for (ITab<?> tab = this; tab != null; tab = tabManager.getNextTab(tab)) {
+            if (!(tab instanceof BaseTab))
+                continue;
+
+            BaseTab<?> baseTab = (BaseTab<?>)tab;
+            baseTab.version.incrementAndGet();
+            Future<?> current = baseTab.evaluation;
+            if (current != null)
+                current.cancel(true);
+        }
+    }
+
     protected void resetImage() {
+        stageKey = null;
         if (image == null) {
 //          logger.trace("> invalidate: already reseted");
         } else {
@@ -166,7 +422,10 @@ public abstract class BaseTab<TTabParams extends ITabParams> implements ITab<TTa
                 return; // canceled
             file = SelectFilterDialog.checkExtension(file, "png");
             try {
-                boolean succ = ImageIO.write(image, "png", file);
+                BufferedImage img = image;
+                if (img == null)
+                    throw new IllegalStateException("Image is not evaluated yet");
+                boolean succ = ImageIO.write(img, "png", file);
                 if (succ)
                     logger.info("Image saved to PNG file {}", file);
                 else
@@ -197,7 +456,16 @@ public abstract class BaseTab<TTabParams extends ITabParams> implements ITab<TTa
     }
 
     protected final Component makeTab() {
+        if (tabManager.isHeadless())
+            return null;
+
         JPanel imagePanel = buildImagePanel(tabManager);
+        StageProfileStrip profileStrip = new StageProfileStrip(this, isPipelineProfileShown());
+        Runnable repaintImagePanel = imagePanelRepaint;
+        imagePanelRepaint = () -> {
+            repaintImagePanel.run();
+            profileStrip.repaint();
+        };
         JPanel leftPanel = new JPanel();
         { // fill leftPanel
             leftPanel.setLayout(new BorderLayout());
@@ -216,12 +484,22 @@ public abstract class BaseTab<TTabParams extends ITabParams> implements ITab<TTa
         JPanel panel = new JPanel();
         panel.setLayout(new BorderLayout());
 
-        panel.add(imagePanel, BorderLayout.CENTER);
-        panel.add(leftPanel , BorderLayout.EAST);
+        JPanel imageWithStatus = new JPanel();
+        imageWithStatus.setLayout(new BorderLayout());
+        imageWithStatus.add(imagePanel  , BorderLayout.CENTER);
+        imageWithStatus.add(profileStrip, BorderLayout.SOUTH);
+
+        panel.add(imageWithStatus, BorderLayout.CENTER);
+        panel.add(leftPanel      , BorderLayout.EAST);
 
         return panel;
     }
 
+    /** show the profile of all pipeline stages under the image panel */
+    protected boolean isPipelineProfileShown() {
+        return false;
+    }
+
     private JPanel buildImagePanel(ITabManager tabHandler) {
         JPanel[] tmp = { null };
         JPanel imagePanel = new JPanel() {
@@ -507,7 +785,7 @@ public abstract class BaseTab<TTabParams extends ITabParams> implements ITab<TTa
         return box;
     }
 
-    protected <E extends Enum<?>> Component makeComboBox(E[] values, Supplier<E> getter, Consumer<E> setter, String name, String title, String tip) {
+    protected <E> Component makeComboBox(E[] values, Supplier<E> getter, Consumer<E> setter, String name, String title, String tip) {
         Box box = Box.createHorizontalBox();
         box.setBorder(BorderFactory.createTitledBorder(title));
         JComboBox<E> comboBox = new JComboBox<>(values);
@@ -636,6 +914,10 @@ public abstract class BaseTab<TTabParams extends ITabParams> implements ITab<TTa
 
     @Override
     public void close() {
+        Future<?> current = evaluation;
+        if (current != null)
+            current.cancel(true);
+
         if (debounceTimer != null) {
             debounceTimer.stop();
             for (ActionListener al : debounceTimer.getActionListeners())
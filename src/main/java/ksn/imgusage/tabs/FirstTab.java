@@ -34,7 +34,16 @@ public class FirstTab extends BaseTab<FirstTabParams> {
     public static final String TAB_DESCRIPTION = "The first tab to select an image to work with";
 
 
-    private BufferedImage sourceImage;
+    /** BufferedImage of the image file, or Mat of the video frame (or of the pipeline engine) */
+    private volatile Object source;
+    /** id of the video frame in {@link #source}: the frames of one video stream have consecutive ids; -1 - not a video frame */
+    private volatile long videoFrameId = -1;
+    private long lastVideoFrameId;
+    /** result, when the source is Mat: the image is built only at the first request */
+    private Mat imageMat;
+    /** source image for which the {@link #sourceKey} is calculated */
+    private BufferedImage hashedImage;
+    private String sourceKey;
     private FirstTabParams params;
     private Consumer<String> showImageSize;
     private VideoCapture videoCapture;
@@ -62,6 +71,9 @@ public class FirstTab extends BaseTab<FirstTabParams> {
 
         this.params = params;
 
+        if (tabManager.isHeadless())
+            return null; // source image is set by the pipeline engine: see setSourceMat
+
         if (params.fileType == EFileType.IMAGE)
             readImageFile(params.imageFile);
         else
@@ -81,7 +93,57 @@ public class FirstTab extends BaseTab<FirstTabParams> {
 
     @Override
     protected BufferedImage getSourceImage() {
-        return sourceImage;
+        Object src = source;
+        if (src instanceof Mat)
+            return ImgHelper.toBufferedImage((Mat)src);
+        return (BufferedImage)src;
+    }
+
+    @Override
+    protected boolean evaluateSource() {
+        return source != null;
+    }
+
+    /** set source image directly, without reading file (headless mode) */
+    public void setSourceMat(Mat source) {
+        this.source = source;
+        videoFrameId = -1;
+        invalidate();
+    }
+
+    /** @return id of the current video frame: the frames of one video stream have consecutive ids; -1 - the source is not a video frame */
+    public long getVideoFrameId() {
+        return (params.fileType == EFileType.VIDEO) ? videoFrameId : -1;
+    }
+
+    @Override
+    protected String makeStageKey() {
+        if (tabManager.isHeadless())
+            return null;
+        Object src = source;
+        if (!(src instanceof BufferedImage))
+            return null; // don`t cache video frames
+        BufferedImage img = (BufferedImage)src;
+        if (img != hashedImage) {
+            sourceKey = StageCache.makeKey(img);
+            hashedImage = img;
+        }
+        return sourceKey;
+    }
+
+    @Override
+    protected boolean isCacheable() {
+        return false; // source image is already in memory
+    }
+
+    @Override
+    protected Object getResultExtra() {
+        return imageMat; // only for StageProfile: see isCacheable
+    }
+
+    @Override
+    protected boolean isPipelineProfileShown() {
+        return true;
     }
 
     public boolean isScale() {
@@ -90,8 +152,45 @@ public class FirstTab extends BaseTab<FirstTabParams> {
 
     @Override
     protected void applyFilter() {
-        image = sourceImage;
-        showImageSize.accept(image.getWidth() + "x" + image.getHeight());
+        Object src = source;
+        String size;
+        if (src instanceof Mat) {
+            imageMat = (Mat)src;
+            image = null; // see buildImage
+            size = imageMat.width() + "x" + imageMat.height();
+        } else {
+            image = (BufferedImage)src;
+            size = image.getWidth() + "x" + image.getHeight();
+        }
+        if (showImageSize != null)
+            SwingUtilities.invokeLater(() -> showImageSize.accept(size));
+    }
+
+    @Override
+    public Mat getImageMat() {
+        if (!evaluateResult())
+            return null;
+        if (imageMat != null)
+            return imageMat;
+        return super.getImageMat();
+    }
+
+    @Override
+    protected boolean hasResult() {
+        return (imageMat != null) || super.hasResult();
+    }
+
+    @Override
+    protected BufferedImage buildImage() {
+        if ((image == null) && (imageMat != null))
+            image = ImgHelper.toBufferedImage(imageMat);
+        return image;
+    }
+
+    @Override
+    protected void resetImage() {
+        imageMat = null;
+        super.resetImage();
     }
 
     public void onSelectImageOrVideo() {
@@ -119,7 +218,8 @@ public class FirstTab extends BaseTab<FirstTabParams> {
                 return;
             }
 
-            sourceImage = ImageIO.read(imageFile);
+            source = ImageIO.read(imageFile);
+            videoFrameId = -1;
 
             params.imageFile = imageFile;
             params.fileType  = EFileType.IMAGE;
@@ -158,7 +258,9 @@ public class FirstTab extends BaseTab<FirstTabParams> {
         if (!videoCapture.read(videoFrame))
             return;
 
-        sourceImage = ImgHelper.toBufferedImage(videoFrame);
+        source = videoFrame;
+        lastVideoFrameId += 2; // new stream: the first frame does not follow the last frame of the previous one
+        videoFrameId = lastVideoFrameId;
 
         params.imageFile = videoFile;
         params.fileType  = EFileType.VIDEO;
@@ -183,10 +285,13 @@ public class FirstTab extends BaseTab<FirstTabParams> {
             return;
         if (videoCapture == null)
             return;
+        if (isEvaluatorBusy())
+            return; // drop frame: the previous one is still evaluating
 
         Mat videoFrame = new Mat();
         if (videoCapture.read(videoFrame)) {
-            sourceImage = ImgHelper.toBufferedImage(videoFrame);
+            source = videoFrame;
+            videoFrameId = ++lastVideoFrameId;
             invalidate();
         } else {
             readVideoFile(params.imageFile); // anew restart video
@@ -218,7 +323,7 @@ public class FirstTab extends BaseTab<FirstTabParams> {
         JButton btnLoadImage = new JButton("Load image/video...");
         btnLoadImage.setToolTipText(UiHelper.KEY_COMBO_OPEN_IMAGE_OR_VIDEO.toolTip);
         btnLoadImage.addActionListener(ev -> onSelectImageOrVideo());
-        if (sourceImage == null)
+        if (source == null)
             SwingUtilities.invokeLater(btnLoadImage::doClick);
 
         return btnLoadImage;
@@ -14,6 +14,8 @@ public interface ITab<TTabParams extends ITabParams> extends AutoCloseable {
     BufferedImage getImage();
     /** get a filtered image, possibly with an additional rendering layer (used to draw in the current tab) */
     BufferedImage getDrawImage();
+    /** get an image to draw in UI, without evaluation in the calling thread: the last good image is returned while the new one is evaluating */
+    BufferedImage getDrawImageAsync();
 
     /** Mark the current image to be redrawn */
     void invalidate();
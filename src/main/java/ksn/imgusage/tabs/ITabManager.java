@@ -19,4 +19,7 @@ public interface ITabManager {
 
     void onError(Exception ex, ITab<?> tab, Component from);
 
+    /** tabs are used without UI (only filter logic): see headless pipeline engine */
+    default boolean isHeadless() { return false; }
+
 }
@@ -0,0 +1,173 @@
+package ksn.imgusage.tabs;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Catalano.Imaging.FastBitmap;
+import ksn.imgusage.utils.JsonHelper;
+
+/** Process-wide cache of stage results.
+ * <br> Key of the stage is the hash of (key of previous stage, tab name, canonical JSON of tab params),
+ *      key of the first stage is the content hash of the source image.
+ * <br> LRU with budget in bytes. */
+public final class StageCache {
+    private StageCache() {}
+
+    private static final Logger logger = LoggerFactory.getLogger(StageCache.class);
+
+    /** max size of all cached images; default - quarter of the heap */
+    public static final long MAX_BYTES = Long.getLong("imgusage.stageCache.maxBytes", Runtime.getRuntime().maxMemory() / 4);
+
+    /** cached stage result */
+    public static class Entry {
+        public final BufferedImage image;
+        /** tab specific result: Mat, FastBitmap... */
+        public final Object extra;
+        final long bytes;
+        Entry(BufferedImage image, Object extra) {
+            this.image = image;
+            this.extra = extra;
+            this.bytes = sizeOf(image) + sizeOf(extra);
+        }
+    }
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true); // access order
+    private static long totalBytes;
+
+    public static synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    public static synchronized void put(String key, BufferedImage image, Object extra) {
+        Entry entry = new Entry(image, extra);
+        if (entry.bytes > MAX_BYTES)
+            return;
+
+        Entry prev = entries.put(key, entry);
+        if (prev != null)
+            totalBytes -= prev.bytes;
+        totalBytes += entry.bytes;
+
+        // evict least recently used
+        Iterator<Entry> it = entries.values().iterator();
+        while ((totalBytes > MAX_BYTES) && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.bytes;
+        }
+        logger.trace("put: entries={}, totalBytes={}", entries.size(), totalBytes);
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    /** key of the next stage */
+    public static String makeKey(String prevStageKey, String tabName, ITabParams params) {
+        String json = (params == null) ? "null" : JsonHelper.toJson(params, false);
+        MessageDigest md = newDigest();
+        md.update(prevStageKey.getBytes(StandardCharsets.UTF_8));
+        md.update((byte)0);
+        md.update(tabName.getBytes(StandardCharsets.UTF_8));
+        md.update((byte)0);
+        md.update(json.getBytes(StandardCharsets.UTF_8));
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(2 * digest.length);
+        for (byte b : digest)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /** key of the source image, by content */
+    public static String makeKey(BufferedImage image) {
+        MessageDigest md = newDigest();
+        DataBuffer db = image.getRaster().getDataBuffer();
+        if (db instanceof DataBufferByte) {
+            for (int i = 0; i < db.getNumBanks(); ++i)
+                md.update(((DataBufferByte)db).getData(i));
+        } else
+        if (db instanceof DataBufferInt) {
+            ByteBuffer bb = ByteBuffer.allocate(4 * 4096);
+            for (int i = 0; i < db.getNumBanks(); ++i) {
+                int[] data = ((DataBufferInt)db).getData(i);
+                for (int off = 0; off < data.length; off += 4096) {
+                    int len = Math.min(4096, data.length - off);
+                    bb.clear();
+                    bb.asIntBuffer().put(data, off, len);
+                    bb.limit(4 * len);
+                    md.update(bb);
+                }
+            }
+        } else
+        if (db instanceof DataBufferUShort) {
+            ByteBuffer bb = ByteBuffer.allocate(2 * 4096);
+            for (int i = 0; i < db.getNumBanks(); ++i) {
+                short[] data = ((DataBufferUShort)db).getData(i);
+                for (int off = 0; off < data.length; off += 4096) {
+                    int len = Math.min(4096, data.length - off);
+                    bb.clear();
+                    bb.asShortBuffer().put(data, off, len);
+                    bb.limit(2 * len);
+                    md.update(bb);
+                }
+            }
+        } else {
+            int w = image.getWidth();
+            int[] row = new int[w];
+            ByteBuffer bb = ByteBuffer.allocate(4 * w);
+            for (int y = 0; y < image.getHeight(); ++y) {
+                image.getRGB(0, y, w, 1, row, 0, w);
+                bb.clear();
+                bb.asIntBuffer().put(row);
+                md.update(bb);
+            }
+        }
+        return String.format("src:%dx%d:%d:%d:%s", image.getWidth(), image.getHeight(), image.getType(), db.getSize(), toHex(md.digest()));
+    }
+
+    /** approximate size of image data, in bytes */
+    public static long sizeOf(Object image) {
+        if (image == null)
+            return 0;
+        if (image instanceof BufferedImage) {
+            DataBuffer db = ((BufferedImage)image).getRaster().getDataBuffer();
+            return (long)db.getSize() * db.getNumBanks() * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+        }
+        if (image instanceof Mat) {
+            Mat mat = (Mat)image;
+            return mat.total() * mat.elemSize();
+        }
+        if (image instanceof FastBitmap) {
+            FastBitmap bmp = (FastBitmap)image;
+            return (long)bmp.getWidth() * bmp.getHeight() * (bmp.isGrayscale() ? 1 : 4);
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,91 @@
+package ksn.imgusage.tabs;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import Catalano.Imaging.FastBitmap;
+
+/** Profile of the last evaluation of the tab: see status strip under the image panel */
+public final class StageProfile {
+
+    private static final ThreadMXBean THREAD_MX = ManagementFactory.getThreadMXBean();
+
+    /** wall time of {@link BaseTab#applyFilter()}, in nanoseconds; 0 - taken from {@link StageCache} */
+    public final long    applyNanos;
+    /** java heap allocated by {@link BaseTab#applyFilter()}, in bytes; -1 - unknown */
+    public final long    allocatedBytes;
+    /** size of the result data (Mat data is native), in bytes */
+    public final long    resultBytes;
+    /** size and type of the result: "1200x766 CV_8UC3" */
+    public final String  result;
+    public final boolean fromCache;
+
+    private StageProfile(long applyNanos, long allocatedBytes, Object result, boolean fromCache) {
+        this.applyNanos     = applyNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.resultBytes    = StageCache.sizeOf(result);
+        this.result         = describe(result);
+        this.fromCache      = fromCache;
+    }
+
+    static StageProfile applied(long applyNanos, long allocatedBytes, Object result) {
+        return new StageProfile(applyNanos, allocatedBytes, result, false);
+    }
+
+    static StageProfile cached(Object result) {
+        return new StageProfile(0, 0, result, true);
+    }
+
+    /** java heap allocated by the current thread; -1 if not supported by JVM */
+    static long threadAllocatedBytes() {
+        if (THREAD_MX instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)THREAD_MX;
+            if (mx.isThreadAllocatedMemorySupported() && mx.isThreadAllocatedMemoryEnabled())
+                return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static String describe(Object result) {
+        if (result instanceof Mat) {
+            Mat mat = (Mat)result;
+            return mat.cols() + "x" + mat.rows() + " " + CvType.typeToString(mat.type());
+        }
+        if (result instanceof FastBitmap) {
+            FastBitmap bmp = (FastBitmap)result;
+            return bmp.getWidth() + "x" + bmp.getHeight() + " " + bmp.getColorSpace();
+        }
+        if (result instanceof BufferedImage) {
+            BufferedImage img = (BufferedImage)result;
+            return img.getWidth() + "x" + img.getHeight() + " BufferedImage(" + img.getType() + ")";
+        }
+        return "?";
+    }
+
+    public double getApplyMs() {
+        return applyNanos / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        if (fromCache)
+            return String.format(Locale.US, "cached; result %s, %s", result, formatBytes(resultBytes));
+        return String.format(Locale.US, "applyFilter %.1f ms; result %s, %s; heap allocated %s",
+                             getApplyMs(), result, formatBytes(resultBytes),
+                             (allocatedBytes < 0) ? "?" : formatBytes(allocatedBytes));
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024)
+            return bytes + " B";
+        if (bytes < 1024 * 1024)
+            return String.format(Locale.US, "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.US, "%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+}
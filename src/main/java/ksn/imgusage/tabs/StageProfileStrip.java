@@ -0,0 +1,127 @@
+package ksn.imgusage.tabs;
+
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.swing.JComponent;
+
+/** Status strip under the image panel: {@link StageProfile} of the tab.
+ * <br> For the first tab - also the bar of applyFilter times of all pipeline stages. */
+class StageProfileStrip extends JComponent {
+
+    private static final long serialVersionUID = 1L;
+    private static final int PADDING = 4;
+    private static final Color[] BAR_COLORS = {
+        new Color(0x8DB6CD), new Color(0xCDAA7D), new Color(0x9BCD9B), new Color(0xCD9B9B), new Color(0xB4A7D6)
+    };
+
+    /** stage on the pipeline bar */
+    private static class Segment {
+        final int x;
+        final int width;
+        final String tip;
+        Segment(int x, int width, String tip) {
+            this.x = x;
+            this.width = width;
+            this.tip = tip;
+        }
+    }
+
+    private final BaseTab<?> tab;
+    private final boolean showPipeline;
+    /** segments of the last painted bar (for tooltips) */
+    private transient List<Segment> segments = new ArrayList<>();
+
+    StageProfileStrip(BaseTab<?> tab, boolean showPipeline) {
+        this.tab = tab;
+        this.showPipeline = showPipeline;
+        setToolTipText(""); // tooltips are provided by getToolTipText(MouseEvent)
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        int lineHeight = getFontMetrics(getFont()).getHeight() + PADDING;
+        return new Dimension(100, showPipeline ? 2 * lineHeight : lineHeight);
+    }
+
+    @Override
+    public Font getFont() {
+        Font font = super.getFont();
+        return (font != null) ? font : new Font(Font.SANS_SERIF, Font.PLAIN, 11);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D)g;
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g2.setFont(getFont());
+        FontMetrics fm = g2.getFontMetrics();
+        int lineHeight = fm.getHeight() + PADDING;
+
+        StageProfile profile = tab.getProfile();
+        g2.setColor(getForeground());
+        g2.drawString((profile == null) ? "not evaluated" : profile.toString(), PADDING, fm.getAscent() + PADDING / 2);
+
+        if (showPipeline)
+            paintPipelineBar(g2, fm, lineHeight);
+    }
+
+    private void paintPipelineBar(Graphics2D g, FontMetrics fm, int y) {
+        List<BaseTab<?>> stages = new ArrayList<>();
+        long totalNanos = 0;
+        for (ITab<?> t = tab; t != null; t = tab.tabManager.getNextTab(t)) {
+            if (!(t instanceof BaseTab))
+                continue;
+            BaseTab<?> stage = (BaseTab<?>)t;
+            StageProfile profile = stage.getProfile();
+            if (profile == null)
+                continue;
+            stages.add(stage);
+            totalNanos += profile.applyNanos;
+        }
+
+        String total = String.format(Locale.US, "pipeline total %.1f ms", totalNanos / 1_000_000.0);
+        int barWidth = getWidth() - 3 * PADDING - fm.stringWidth(total);
+        int barHeight = fm.getHeight();
+        List<Segment> newSegments = new ArrayList<>();
+        if ((totalNanos > 0) && (barWidth > 0)) {
+            double x = PADDING;
+            for (int i = 0; i < stages.size(); ++i) {
+                BaseTab<?> stage = stages.get(i);
+                StageProfile profile = stage.getProfile();
+                double w = (double)barWidth * profile.applyNanos / totalNanos;
+                int x0 = (int)Math.round(x);
+                int w0 = (int)Math.round(x + w) - x0;
+                x += w;
+                if (w0 <= 0)
+                    continue;
+
+                g.setColor(BAR_COLORS[i % BAR_COLORS.length]);
+                g.fillRect(x0, y, w0, barHeight);
+                String title = stage.getTitle();
+                if (fm.stringWidth(title) + 2 < w0) {
+                    g.setColor(Color.BLACK);
+                    g.drawString(title, x0 + 1, y + fm.getAscent());
+                }
+                newSegments.add(new Segment(x0, w0, stage.getTitle() + ": " + profile));
+            }
+        }
+        segments = newSegments;
+
+        g.setColor(getForeground());
+        g.drawString(total, getWidth() - PADDING - fm.stringWidth(total), y + fm.getAscent());
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        for (Segment segment : segments)
+            if ((event.getX() >= segment.x) && (event.getX() < segment.x + segment.width))
+                return segment.tip;
+        StageProfile profile = tab.getProfile();
+        return (profile == null) ? null : profile.toString();
+    }
+
+}
@@ -2,10 +2,14 @@ package ksn.imgusage.tabs.catalano;
 
 import java.awt.image.BufferedImage;
 
+import org.opencv.core.Mat;
+
 import Catalano.Imaging.FastBitmap;
 import ksn.imgusage.tabs.BaseTab;
 import ksn.imgusage.tabs.ITab;
 import ksn.imgusage.tabs.ITabParams;
+import ksn.imgusage.tabs.opencv.OpencvFilterTab;
+import ksn.imgusage.utils.ImgHelper;
 
 public abstract class CatalanoFilterTab<TTabParams extends ITabParams> extends BaseTab<TTabParams>  {
 
@@ -30,6 +34,13 @@ public abstract class CatalanoFilterTab<TTabParams extends ITabParams> extends B
         ITab<?> source = tabManager.getPrevTab(this);
         if (source instanceof CatalanoFilterTab)
             return ((CatalanoFilterTab<?>)source).imageFBmp;
+        if (source instanceof OpencvFilterTab) {
+            // directly from Mat, without BufferedImage
+            Mat src = ((OpencvFilterTab<?>)source).getImageMat();
+            if (src == null)
+                return null;
+            return ImgHelper.toFastBitmap(src);
+        }
 
         BufferedImage src = source.getImage();
         if (src == null)
@@ -41,7 +52,10 @@ public abstract class CatalanoFilterTab<TTabParams extends ITabParams> extends B
 
     @Override
     protected final void applyFilter() {
-        imageFBmp = new FastBitmap(getSourceFastBitmap()); // clone
+        FastBitmap src = getSourceFastBitmap();
+        imageFBmp = (tabManager.getPrevTab(this) instanceof OpencvFilterTab)
+            ? src                   // already a copy of Mat
+            : new FastBitmap(src);  // clone
 
         // predefined filters
         if (onlyGray && !imageFBmp.isGrayscale())
@@ -50,7 +64,28 @@ public abstract class CatalanoFilterTab<TTabParams extends ITabParams> extends B
         // specific filter
         applyCatalanoFilter();
 
-        image = imageFBmp.toBufferedImage();
+        image = null; // see buildImage
+    }
+
+    @Override
+    public Mat getImageMat() {
+        if (!evaluateResult())
+            return null;
+        if (imageFBmp == null)
+            return super.getImageMat(); // failed
+        return ImgHelper.toMat(imageFBmp);
+    }
+
+    @Override
+    protected boolean hasResult() {
+        return (imageFBmp != null) || super.hasResult();
+    }
+
+    @Override
+    protected BufferedImage buildImage() {
+        if ((image == null) && (imageFBmp != null))
+            image = imageFBmp.toBufferedImage();
+        return image;
     }
 
     @Override
@@ -59,4 +94,14 @@ public abstract class CatalanoFilterTab<TTabParams extends ITabParams> extends B
         super.resetImage();
     }
 
+    @Override
+    protected Object getResultExtra() {
+        return imageFBmp;
+    }
+
+    @Override
+    protected void setResultExtra(Object extra) {
+        imageFBmp = (FastBitmap)extra;
+    }
+
 }
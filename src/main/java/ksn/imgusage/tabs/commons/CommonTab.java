@@ -1,16 +1,61 @@
 package ksn.imgusage.tabs.commons;
 
+import java.awt.image.BufferedImage;
+
+import org.opencv.core.Mat;
+
 import ksn.imgusage.tabs.BaseTab;
 import ksn.imgusage.tabs.ITabParams;
+import ksn.imgusage.utils.ImgHelper;
 
 public abstract class CommonTab<TTabParams extends ITabParams> extends BaseTab<TTabParams> {
 
     private static final String GROUP = "Common";
     public static final String TAB_PREFIX = GROUP + ":";
 
+    /** result of the current tab, if the filter works with Mat (see buildImage) */
+    protected Mat imageMat;
+
     @Override
     public String getGroup() {
         return GROUP;
     }
 
+    @Override
+    public Mat getImageMat() {
+        if (!evaluateResult())
+            return null;
+        if (imageMat == null)
+            return super.getImageMat(); // failed
+        return imageMat;
+    }
+
+    @Override
+    protected boolean hasResult() {
+        return (imageMat != null) || super.hasResult();
+    }
+
+    @Override
+    protected BufferedImage buildImage() {
+        if ((image == null) && (imageMat != null))
+            image = ImgHelper.toBufferedImage(imageMat);
+        return image;
+    }
+
+    @Override
+    protected void resetImage() {
+        imageMat = null;
+        super.resetImage();
+    }
+
+    @Override
+    protected Object getResultExtra() {
+        return imageMat;
+    }
+
+    @Override
+    protected void setResultExtra(Object extra) {
+        imageMat = (Mat)extra;
+    }
+
 }
@@ -8,11 +8,14 @@ import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.JButton;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
 
 import ksn.imgusage.model.SliderIntModel;
 import ksn.imgusage.type.Size;
 import ksn.imgusage.type.dto.common.ResizeTabParams;
-import ksn.imgusage.utils.ImgHelper;
 
 /** Resize image */
 public class ResizeTab extends CommonTab<ResizeTabParams> {
@@ -61,14 +64,30 @@ public class ResizeTab extends CommonTab<ResizeTabParams> {
 
     @Override
     protected void applyFilter() {
-        if (image == null) {
-            if (applyMaxSizeLimits != null)
+        Mat src = getSourceMat();
+
+        // the same limits as applyMaxSizeLimits and onCheckKeepAspectRationByWidth of the sliders
+        int w = Math.min(params.keepToSize.width , MAX_IMAGE_WIDTH);
+        int h = Math.min(params.keepToSize.height, MAX_IMAGE_HEIGHT);
+        if (params.useKeepAspectRatio) {
+            double newHeight = src.rows() * (w / (double)src.cols());
+            if (Math.abs(newHeight - h) > 1)
+                h = Math.max(MIN_IMAGE_HEIGHT, Math.min(MAX_IMAGE_HEIGHT, (int)newHeight));
+        }
+
+        if ((applyMaxSizeLimits != null) && (onCheckKeepAspectRationByWidth != null))
+            SwingUtilities.invokeLater(() -> { // only the params and the sliders
                 applyMaxSizeLimits.run();
-            if (onCheckKeepAspectRationByWidth != null)
                 onCheckKeepAspectRationByWidth.run();
-        }
+            });
 
-        image = ImgHelper.resize(getSourceImage(), params.keepToSize.width, params.keepToSize.height);
+        imageMat = new Mat();
+        Imgproc.resize(src,
+                       imageMat,
+                       new org.opencv.core.Size(w, h),
+                       0, 0,
+                       Imgproc.INTER_AREA); // as ImgHelper.resize(BufferedImage, ...)
+        image = null; // see buildImage
     }
 
     @Override
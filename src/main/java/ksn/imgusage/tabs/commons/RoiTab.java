@@ -5,6 +5,8 @@ import java.awt.image.BufferedImage;
 
 import javax.swing.*;
 
+import org.opencv.core.Mat;
+
 import Catalano.Imaging.FastBitmap;
 import ksn.imgusage.model.SliderIntModel;
 import ksn.imgusage.type.Rect;
@@ -56,46 +58,36 @@ public class RoiTab extends CommonTab<RoiTabParams> {
 
     @Override
     protected void applyFilter() {
-        if (image == null)
-            applyLimits.run();
-
-        BufferedImage sourceImage = getSourceImage();
-        int srcW = sourceImage.getWidth();
-        int srcH = sourceImage.getHeight();
+        if ((image == null) && (applyLimits != null))
+            SwingUtilities.invokeLater(applyLimits); // only the sliders: the ROI is limited here, see toRoi
 
-        int x = fromRatioX(params.roi.x);
-        int y = fromRatioY(params.roi.y);
-        int w = fromRatioX(params.roi.width);
-        int h = fromRatioY(params.roi.height);
+        Mat src = getSourceMat();
+        int srcW = src.cols();
+        int srcH = src.rows();
 
-        if ((x <= 0) &&
-            (y <= 0) &&
-            (w >= srcW) &&
-            (h >= srcH))
-        {
-            image = sourceImage;
+        Rect roi = toRoi(srcW, srcH);
+        if ((roi.width == srcW) && (roi.height == srcH)) {
+            imageMat = src;
+            image = null; // see buildImage
             return;
         }
 
-        BufferedImage tmp = new BufferedImage(w, h, sourceImage.getType());
-        Graphics2D g = tmp.createGraphics();
-        try {
-            g.drawImage(
-                sourceImage,
-                0, 0, w, h,
-                x, y, x + w, y + h,
-                null);
-        } finally {
-            g.dispose();
-        }
-        image = tmp;
+        imageMat = src.submat(roi.y, roi.y + roi.height, roi.x, roi.x + roi.width).clone();
+        image = null; // see buildImage
+    }
+
+    /** ROI in the source coordinates, inside the source: the same limits as applyLimits of the sliders */
+    private Rect toRoi(int srcW, int srcH) {
+        int x = Math.max(0, Math.min(srcW - 1, fromRatio(params.roi.x, srcW, params.ratio.width)));
+        int y = Math.max(0, Math.min(srcH - 1, fromRatio(params.roi.y, srcH, params.ratio.height)));
+        int w = Math.max(1, Math.min(srcW - x, fromRatio(params.roi.width , srcW, params.ratio.width)));
+        int h = Math.max(1, Math.min(srcH - y, fromRatio(params.roi.height, srcH, params.ratio.height)));
+        return new Rect(x, y, w, h);
     }
 
     @Override
     public BufferedImage getDrawImage() {
-        if (drawImage == null)
-            applyLimits.run();
-        else
+        if (drawImage != null)
             return drawImage;
 
         BufferedImage sourceImage = getSourceImage();
@@ -105,16 +97,13 @@ public class RoiTab extends CommonTab<RoiTabParams> {
         int srcW = sourceImage.getWidth();
         int srcH = sourceImage.getHeight();
 
-        int x = fromRatioX(params.roi.x);
-        int y = fromRatioY(params.roi.y);
-        int w = fromRatioX(params.roi.width);
-        int h = fromRatioY(params.roi.height);
+        Rect roi = toRoi(srcW, srcH);
+        int x = roi.x;
+        int y = roi.y;
+        int w = roi.width;
+        int h = roi.height;
 
-        if ((x <= 0) &&
-            (y <= 0) &&
-            (w >= srcW) &&
-            (h >= srcH))
-        {
+        if ((w == srcW) && (h == srcH)) {
             drawImage = getImage();
             return drawImage;
         }
@@ -308,28 +297,11 @@ public class RoiTab extends CommonTab<RoiTabParams> {
     }
 
 
-    private int fromRatioX(int val) {
-        BufferedImage sourceImage = getSourceImage();
-        if (sourceImage == null)
-            return val;
-
-        int srcW = sourceImage.getWidth();
-        if (srcW == params.ratio.width)
-            return val;
-
-        return (int)(val * (double)srcW / params.ratio.width);
-    }
-
-    private int fromRatioY(int val) {
-        BufferedImage sourceImage = getSourceImage();
-        if (sourceImage == null)
-            return val;
-
-        int srcH = sourceImage.getHeight();
-        if (srcH == params.ratio.height)
+    private static int fromRatio(int val, int srcSize, int ratio) {
+        if (srcSize == ratio)
             return val;
 
-        return (int)(val * (double)srcH / params.ratio.height);
+        return (int)(val * (double)srcSize / ratio);
     }
 
 }
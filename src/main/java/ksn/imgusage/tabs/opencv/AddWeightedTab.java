@@ -64,6 +64,16 @@ public class AddWeightedTab extends OpencvFilterTab<AddWeightedTabParams> {
         imageMat = dst;
     }
 
+    @Override
+    protected String makeStageKey() {
+        // result depends on the secondary source too
+        String key = super.makeStageKey();
+        String key2 = getStageKey(tabManager.getPrevTab(tabManager.getPrevTab(this)));
+        if ((key == null) || (key2 == null))
+            return null;
+        return key + ":" + key2;
+    }
+
 
     @Override
     protected Component makeOptions() {
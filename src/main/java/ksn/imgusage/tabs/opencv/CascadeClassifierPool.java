@@ -0,0 +1,155 @@
+package ksn.imgusage.tabs.opencv;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+import org.bytedeco.javacpp.Loader;
+import org.opencv.objdetect.CascadeClassifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Process-wide pool of cascade classifiers (Haar and LBP).
+ * <br> Models are discovered at runtime in the resources of bytedeco OpenCV for the current platform;
+ *      model name is the file name without extension: haarcascade_frontalface_alt, lbpcascade_frontalface, ...
+ * <br> The model is extracted from the resources and parsed only at its first use;
+ *      each thread gets its own instance ({@link CascadeClassifier#detectMultiScale} is not re-entrant). */
+public final class CascadeClassifierPool {
+    private CascadeClassifierPool() {}
+
+    private static final Logger logger = LoggerFactory.getLogger(CascadeClassifierPool.class);
+
+    public  static final String HAAR_PREFIX = "haarcascade_";
+    public  static final String LBP_PREFIX  = "lbpcascade_";
+    private static final String MODEL_SUFFIX = ".xml";
+    private static final String HAAR_DIR = "haarcascades";
+    private static final String LBP_DIR  = "lbpcascades";
+
+    /** discovered model names */
+    private static List<String> models;
+    /** extracted model files */
+    private static final Map<String, Path> FILES = new HashMap<>();
+    /** loaded classifiers of each thread */
+    private static final ThreadLocal<Map<String, CascadeClassifier>> CLASSIFIERS = ThreadLocal.withInitial(HashMap::new);
+
+    /** @return names of the models found in the resources: Haar, then LBP */
+    public static synchronized List<String> getModels() {
+        if (models == null) {
+            List<String> found = new ArrayList<>();
+            found.addAll(findModels(HAAR_DIR));
+            found.addAll(findModels(LBP_DIR));
+            models = Collections.unmodifiableList(found);
+            logger.debug("Found {} cascade models for platform {}", models.size(), Loader.getPlatform());
+        }
+        return models;
+    }
+
+    /** @return model name; the short names of older pipelines (<code>frontalface_alt</code>) are Haar models */
+    public static String toModelName(String model) {
+        if ((model == null) || model.startsWith(HAAR_PREFIX) || model.startsWith(LBP_PREFIX))
+            return model;
+        return HAAR_PREFIX + model;
+    }
+
+    /** @return classifier of the model, only for the current thread */
+    public static CascadeClassifier get(String model) {
+        model = toModelName(model);
+        Map<String, CascadeClassifier> classifiers = CLASSIFIERS.get();
+        CascadeClassifier classifier = classifiers.get(model);
+        if (classifier != null)
+            return classifier;
+
+        Path xml = getFile(model);
+        long start = System.nanoTime();
+        classifier = new CascadeClassifier();
+        if (!classifier.load(xml.toString()))
+            throw new IllegalStateException("Can`t load cascade classifier " + xml);
+        logger.debug("Model {} loaded in {} ms, thread {}", model, (System.nanoTime() - start) / 1_000_000, Thread.currentThread().getName());
+
+        classifiers.put(model, classifier);
+        return classifier;
+    }
+
+    private static String getResourceDir(String dir) {
+        return "org/bytedeco/opencv/" + Loader.getPlatform() + "/share/opencv4/" + dir;
+    }
+
+    private static String getModelDir(String model) {
+        return model.startsWith(LBP_PREFIX) ? LBP_DIR : HAAR_DIR;
+    }
+
+    private static List<String> findModels(String dir) {
+        String resourceDir = getResourceDir(dir);
+        URL url = Loader.class.getClassLoader().getResource(resourceDir);
+        if (url == null) {
+            logger.warn("Not found resource {}", resourceDir);
+            return Collections.emptyList();
+        }
+
+        List<String> res = new ArrayList<>();
+        try {
+            if ("jar".equals(url.getProtocol())) {
+                JarURLConnection conn = (JarURLConnection)url.openConnection();
+                conn.setUseCaches(false);
+                try (JarFile jar = conn.getJarFile()) {
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        String entry = entries.nextElement().getName();
+                        if (entry.startsWith(resourceDir + "/") && (entry.indexOf('/', resourceDir.length() + 1) < 0))
+                            addModel(res, entry.substring(resourceDir.length() + 1));
+                    }
+                }
+            } else {
+                try (Stream<Path> files = Files.list(Path.of(url.toURI()))) {
+                    files.forEach(f -> addModel(res, f.getFileName().toString()));
+                }
+            }
+        } catch (IOException | URISyntaxException ex) {
+            logger.error("Can`t list models in {}", url, ex);
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    private static void addModel(List<String> models, String fileName) {
+        if (fileName.endsWith(MODEL_SUFFIX))
+            models.add(fileName.substring(0, fileName.length() - MODEL_SUFFIX.length()));
+    }
+
+    private static synchronized Path getFile(String model) {
+        Path xml = FILES.get(model);
+        if (xml != null)
+            return xml;
+
+        File file;
+        try {
+            Path tmpDir = Path.of(System.getProperty("java.io.tmpdir"), "ImageFilterExamples", "CascadeClassifier");
+            Files.createDirectories(tmpDir);
+            // absolute name: relative one is resolved from the package of the class
+            String resource = "/" + getResourceDir(getModelDir(model)) + "/" + model + MODEL_SUFFIX;
+            file = Loader.extractResource(Loader.class, resource, tmpDir.toFile(), getModelDir(model), null);
+        } catch (Exception ex) {
+            throw new IllegalStateException("Can`t extract model " + model, ex);
+        }
+        if (file == null)
+            throw new IllegalStateException("Not found resource of model " + model);
+
+        xml = file.toPath();
+        FILES.put(model, xml);
+        return xml;
+    }
+
+}
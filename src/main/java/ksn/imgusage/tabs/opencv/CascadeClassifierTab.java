@@ -2,22 +2,25 @@ package ksn.imgusage.tabs.opencv;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
-import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.EnumMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.JPanel;
 
-import org.bytedeco.javacpp.Loader;
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
 
+import ksn.imgusage.model.SliderIntModel;
+import ksn.imgusage.tabs.FirstTab;
+import ksn.imgusage.tabs.ITab;
 import ksn.imgusage.type.dto.opencv.CascadeClassifierTabParams;
+import ksn.imgusage.utils.GeomHelper;
 import ksn.imgusage.utils.OpenCvHelper;
 
 /** <a href='https://docs.opencv.org/3.4/db/d28/tutorial_cascade_classifier.html'>Cascade Classifier - Object Detection using Haar feature-based cascade classifiers</a> */
@@ -25,71 +28,42 @@ public class CascadeClassifierTab extends OpencvFilterTab<CascadeClassifierTabPa
 
     public static final String TAB_TITLE = "CascadeClassifier";
     public static final String TAB_NAME  = TAB_PREFIX + TAB_TITLE;
-    public static final String TAB_DESCRIPTION = "Object Detection using Haar feature-based cascade classifiers";
+    public static final String TAB_DESCRIPTION = "Object Detection using Haar or LBP feature-based cascade classifiers";
 
   //private static final Scalar FUCHSIA = new Scalar(0xFF, 0x00, 0xFF);
     private static final Scalar BLUE    = new Scalar(0xFF, 0x00, 0x00);
     private static final Scalar LIME    = new Scalar(0x00, 0xFF, 0x00);
 
-    /**
-     *  Hardcoded resources from
-     * @see /home/USER/.gradle/caches/modules-2/files-2.1/org.bytedeco/opencv/4.3.0-1.5.3/fecbcb851829fa5394253011580563001e5aa71c/opencv-4.3.0-1.5.3-sources.jar
-     * #/org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_*.xml
-     * <br> TODO: get dynamically at runtime
-     **/
-    public enum EHaarcascade {
-            eye_tree_eyeglasses       , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_eye_tree_eyeglasses.xml
-            eye                       , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_eye.xml
-            frontalcatface_extended   , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_frontalcatface_extended.xml
-            frontalcatface            , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_frontalcatface.xml
-            frontalface_alt_tree      , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_frontalface_alt_tree.xml
-            frontalface_alt           , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_frontalface_alt.xml
-            frontalface_alt2          , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_frontalface_alt2.xml
-            frontalface_default       , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_frontalface_default.xml
-            fullbody                  , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_fullbody.xml
-            lefteye_2splits           , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_lefteye_2splits.xml
-            licence_plate_rus_16stages, // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_licence_plate_rus_16stages.xml
-            lowerbody                 , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_lowerbody.xml
-            profileface               , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_profileface.xml
-            righteye_2splits          , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_righteye_2splits.xml
-            russian_plate_number      , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_russian_plate_number.xml
-            smile                     , // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_smile.xml
-            upperbody };                // /org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_upperbody.xml
-    private static final String HAARCASCADE_PATH_NAME_PREFIX = "org/bytedeco/opencv/linux-x86/share/opencv4/haarcascades/haarcascade_";
-    private static final String HAARCASCADE_PATH_NAME_SUFFIX = ".xml";
-
-    private static final EnumMap<EHaarcascade, Path> HAARCASCADES;
-
-    static {
-        Path tmpDir;
-        try {
-            tmpDir = Path.of(System.getProperty("java.io.tmpdir"), "ImageFilterExamples", "CascadeClassifier");
-            Files.createDirectories(tmpDir);
-        } catch (Exception ex) {
-            throw new RuntimeException("Can not create temporaly directory", ex);
-        }
-
-        HAARCASCADES = new EnumMap<>(EHaarcascade.class);
-        for (EHaarcascade e : EHaarcascade.values()) {
-            try {
-                File xml = Loader.extractResource(Loader.class, HAARCASCADE_PATH_NAME_PREFIX + e.name() + HAARCASCADE_PATH_NAME_SUFFIX, tmpDir.toFile(), "haarcascades", null);
-                if (xml != null)
-                    HAARCASCADES.put(e, xml.toPath());
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
-        }
-    }
-
+    /** detectMultiScale defaults */
+    private static final double SCALE_FACTOR  = 1.1;
+    private static final int    MIN_NEIGHBORS = 3;
+    /** sharded pyramid: max count of bands */
+    private static final int    MAX_SHARDS = 8;
+    /** sharded pyramid: detections of different bands with greater overlap are the same object */
+    private static final double NMS_MAX_IOU = 0.3;
+    /** tracking: max full detection interval, in frames */
+    private static final int    MAX_TRACK_INTERVAL = 30;
+    /** tracking: ROI around the previous detection is grown by this part of its size on each side */
+    private static final double TRACK_ROI_GROW = 0.5;
+    /** tracking: min/max size of the object in ROI, relative to the previous detection */
+    private static final double TRACK_SIZE_RANGE = 1.25;
 
     private CascadeClassifierTabParams params;
-    private CascadeClassifier first;
-    private CascadeClassifier second;
+    /** tracking: detections of the previous video frame */
+    private List<Rect> tracked;
+    /** tracking: id of the previous video frame, see {@link FirstTab#getVideoFrameId()} */
+    private long trackedFrameId;
+    /** tracking: frames since the last full detection */
+    private int trackedFrames;
+    /** tracking: full detection is required when the model or the frame size changed */
+    private String trackedKey;
 
     @Override
     public Component makeTab(CascadeClassifierTabParams params) {
         if (params == null)
             params = new CascadeClassifierTabParams();
+        params.first  = CascadeClassifierPool.toModelName(params.first);
+        params.second = CascadeClassifierPool.toModelName(params.second);
         this.params = params;
         return makeTab();
     }
@@ -103,37 +77,54 @@ public class CascadeClassifierTab extends OpencvFilterTab<CascadeClassifierTabPa
 
     @Override
     protected void applyOpencvFilter() {
-        if (first == null) {
-            CascadeClassifier tmp = new CascadeClassifier();
-            tmp.load(HAARCASCADES.get(params.first).toString());
-            first = tmp;
-        }
-        if ((second == null) && (params.second != null)) {
-            CascadeClassifier tmp = new CascadeClassifier();
-            tmp.load(HAARCASCADES.get(params.second).toString());
-            second = tmp;
-        }
+        String firstModel  = params.first;
+        String secondModel = params.second;
 
         // cast to gray image
         Mat imageGray = OpenCvHelper.toGray(imageMat);
         Imgproc.equalizeHist(imageGray, imageGray);
 
         // Detect faces
-        MatOfRect faces = new MatOfRect();
-        first.detectMultiScale(imageGray, faces);
-        List<Rect> listOfFaces = faces.toList();
-        for (Rect face : listOfFaces) {
+        List<Rect> listOfFaces;
+        // track only the next frame of the same video stream: not a re-evaluation of the frame, not another image
+        long frameId = (params.trackInterval > 0) ? getVideoFrameId() : -1;
+        String trackKey = firstModel + " " + imageGray.size();
+        boolean track = (frameId >= 0) && (tracked != null) && (frameId == trackedFrameId + 1) && trackKey.equals(trackedKey);
+        if (track && (trackedFrames < params.trackInterval)) {
+            listOfFaces = detectTracked(imageGray, firstModel, tracked);
+            ++trackedFrames;
+        } else {
+            listOfFaces = detect(imageGray, firstModel, params.shardPyramid);
+            trackedFrames = 1;
+        }
+        if (frameId >= 0) {
+            tracked        = listOfFaces;
+            trackedFrameId = frameId;
+            trackedKey     = trackKey;
+        } else {
+            tracked    = null;
+            trackedKey = null;
+        }
+
+        // In each face, detect eyes: faces in parallel, the classifier of each thread
+        List<List<Rect>> eyesOfFaces = (secondModel == null)
+            ? null
+            : listOfFaces.parallelStream()
+                .map(face -> {
+                    MatOfRect eyes = new MatOfRect();
+                    CascadeClassifierPool.get(secondModel).detectMultiScale(imageGray.submat(face), eyes);
+                    return eyes.toList();
+                })
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < listOfFaces.size(); ++i) {
+            Rect face = listOfFaces.get(i);
             //Point center = new Point(face.x + face.width / 2, face.y + face.height / 2);
             //Imgproc.ellipse(imageMat, center, new Size(face.width / 2, face.height / 2), 0, 0, 360, FUCHSIA);
             Imgproc.rectangle(imageMat, face, LIME, 3);
 
-            Mat faceROI = imageGray.submat(face);
-            if (second != null) {
-                // In each face, detect eyes
-                MatOfRect eyes = new MatOfRect();
-                second.detectMultiScale(faceROI, eyes);
-                List<Rect> listOfEyes = eyes.toList();
-                for (Rect eye : listOfEyes) {
+            if (eyesOfFaces != null) {
+                for (Rect eye : eyesOfFaces.get(i)) {
                     Point eyeCenter = new Point(face.x + eye.x + eye.width / 2, face.y + eye.y + eye.height / 2);
                     int radius = (int) Math.round((eye.width + eye.height) * 0.25);
                     Imgproc.circle(imageMat, eyeCenter, radius, BLUE, 2);
@@ -142,29 +133,140 @@ public class CascadeClassifierTab extends OpencvFilterTab<CascadeClassifierTabPa
         }
     }
 
+    /** @return id of the video frame of the first tab; -1 - the source is not a video frame */
+    private long getVideoFrameId() {
+        ITab<?> first = this;
+        for (ITab<?> prev = tabManager.getPrevTab(first); prev != null; prev = tabManager.getPrevTab(first))
+            first = prev;
+        return (first instanceof FirstTab) ? ((FirstTab)first).getVideoFrameId() : -1;
+    }
+
+    private static List<Rect> detect(Mat imageGray, String model, boolean shardPyramid) {
+        if (shardPyramid)
+            return detectSharded(imageGray, model);
+
+        MatOfRect objects = new MatOfRect();
+        CascadeClassifierPool.get(model).detectMultiScale(imageGray, objects);
+        return objects.toList();
+    }
+
+    /** The first stage between full detections on video: each previous detection is searched in the grown ROI around it,
+     *  with the object size close to the previous one. The lost objects are found again by the next full detection.
+     * <br> From the candidates in ROI is taken the nearest one to the previous detection, so the output is stable across frames. */
+    private static List<Rect> detectTracked(Mat imageGray, String model, List<Rect> previous) {
+        Rect frame = new Rect(0, 0, imageGray.width(), imageGray.height());
+        List<Rect> found = previous.parallelStream()
+            .map(prev -> {
+                int growX = (int)Math.round(prev.width  * TRACK_ROI_GROW);
+                int growY = (int)Math.round(prev.height * TRACK_ROI_GROW);
+                Rect roi = GeomHelper.intersect(
+                    frame,
+                    new Rect(prev.x - growX, prev.y - growY, prev.width + 2 * growX, prev.height + 2 * growY));
+
+                MatOfRect objects = new MatOfRect();
+                CascadeClassifierPool.get(model).detectMultiScale(
+                    imageGray.submat(roi),
+                    objects,
+                    SCALE_FACTOR,
+                    MIN_NEIGHBORS,
+                    0,
+                    new Size(prev.width / TRACK_SIZE_RANGE, prev.height / TRACK_SIZE_RANGE),
+                    new Size(prev.width * TRACK_SIZE_RANGE, prev.height * TRACK_SIZE_RANGE));
+
+                Rect best = null;
+                double bestIou = -1;
+                for (Rect rc : objects.toList()) {
+                    Rect candidate = new Rect(roi.x + rc.x, roi.y + rc.y, rc.width, rc.height);
+                    double iou = GeomHelper.iou(prev, candidate);
+                    if (iou > bestIou) {
+                        best = candidate;
+                        bestIou = iou;
+                    }
+                }
+                return best;
+            })
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+
+        // ROIs of close objects are overlapped: the same object can be found twice
+        double[] scores = new double[found.size()];
+        Arrays.fill(scores, 1);
+        return GeomHelper.nonMaxSuppression(found, scores, NMS_MAX_IOU);
+    }
+
+    /** The first stage for very large frames: the scale pyramid is split to bands of object size, detected in parallel
+     *  and merged by non-maximum suppression (score - number of neighbor detections).
+     * <br> The work of a pyramid level is ~ 1/scale^2, so the bands are of the equal work, not of the equal scale range. */
+    private static List<Rect> detectSharded(Mat imageGray, String model) {
+        Size window = CascadeClassifierPool.get(model).getOriginalWindowSize();
+        double maxScale = Math.min(imageGray.width() / window.width, imageGray.height() / window.height);
+        int shards = Math.min(MAX_SHARDS, Runtime.getRuntime().availableProcessors());
+        if ((shards < 2) || (maxScale < 2)) {
+            // nothing to split
+            MatOfRect objects = new MatOfRect();
+            CascadeClassifierPool.get(model).detectMultiScale(imageGray, objects);
+            return objects.toList();
+        }
+
+        double[] bounds = new double[shards + 1];
+        for (int k = 0; k <= shards; ++k)
+            bounds[k] = 1 / Math.sqrt(1 - (double)k / shards * (1 - 1 / (maxScale * maxScale)));
+        bounds[shards] = maxScale;
+
+        MatOfRect[] objects       = new MatOfRect[shards];
+        MatOfInt [] numDetections = new MatOfInt [shards];
+        IntStream.range(0, shards).parallel().forEach(k -> {
+            // bands are overlapped by one pyramid step: the objects on the bound are found in both
+            double minScale = bounds[k] / SCALE_FACTOR;
+            double maxScaleK = bounds[k + 1] * SCALE_FACTOR;
+            objects      [k] = new MatOfRect();
+            numDetections[k] = new MatOfInt();
+            CascadeClassifierPool.get(model).detectMultiScale2(
+                imageGray,
+                objects[k],
+                numDetections[k],
+                SCALE_FACTOR,
+                MIN_NEIGHBORS,
+                0,
+                new Size(window.width * minScale , window.height * minScale),
+                (k == shards - 1) ? new Size() : new Size(window.width * maxScaleK, window.height * maxScaleK));
+        });
+
+        List<Rect> rects = new ArrayList<>();
+        List<Integer> scores = new ArrayList<>();
+        for (int k = 0; k < shards; ++k) {
+            rects .addAll(objects      [k].toList());
+            scores.addAll(numDetections[k].toList());
+        }
+        return GeomHelper.nonMaxSuppression(rects, scores.stream().mapToDouble(Integer::doubleValue).toArray(), NMS_MAX_IOU);
+    }
+
     @Override
     protected Component makeOptions() {
+        // models of the resources; the model of loaded pipeline is kept even if not found
+        List<String> models = new ArrayList<>(CascadeClassifierPool.getModels());
+        if ((params.first != null) && !models.contains(params.first))
+            models.add(params.first);
+        if ((params.second != null) && !models.contains(params.second))
+            models.add(params.second);
+
         Box box1 = Box.createHorizontalBox();
         box1.add(Box.createHorizontalStrut(5));
         box1.add(makeComboBox(
-                              EHaarcascade.values(),
+                              models.toArray(new String[models.size()]),
                               () -> params.first,
-                              v  -> {
-                                  params.first = v;
-                                  first = null;
-                              },
+                              v  -> params.first = v,
                               "params.first",
-                              "Haar-cascade first model",
-                              "Haar-cascade detection pretrained models"));
+                              "First model",
+                              "Cascade detection pretrained models: Haar or LBP (several times faster)"));
         box1.add(Box.createHorizontalStrut(5));
 
 
-        EHaarcascade[] def = EHaarcascade.values();
-        EHaarcascade[] vals = new EHaarcascade[1 + def.length];
+        String[] vals = new String[1 + models.size()];
         int i = 0;
         vals[i++] = null;
-        for (EHaarcascade e : def) {
-            vals[i++] = e;
+        for (String m : models) {
+            vals[i++] = m;
         }
 
         Box box2 = Box.createHorizontalBox();
@@ -172,13 +274,10 @@ public class CascadeClassifierTab extends OpencvFilterTab<CascadeClassifierTabPa
         box2.add(makeComboBox(
                               vals,
                               () -> params.second,
-                              v  -> {
-                                  params.second = v;
-                                  second = null;
-                              },
+                              v  -> params.second = v,
                               "params.second",
-                              "Haar-cascade second model",
-                              "Haar-cascade detection pretrained models"));
+                              "Second model",
+                              "Cascade detection pretrained models: Haar or LBP (several times faster)"));
         box2.add(Box.createHorizontalStrut(5));
 
 
@@ -189,6 +288,25 @@ public class CascadeClassifierTab extends OpencvFilterTab<CascadeClassifierTabPa
         box.add(Box.createVerticalStrut(5));
         box.add(box2);
         box.add(Box.createVerticalStrut(5));
+        box.add(makeCheckBox(
+                () -> params.shardPyramid,
+                v  -> params.shardPyramid = v,
+                "Shard pyramid",
+                "params.shardPyramid",
+                "For very large frames: detect the bands of the scale pyramid of the first model in parallel",
+                null));
+        box.add(Box.createVerticalStrut(5));
+
+        SliderIntModel modelTrackInterval = new SliderIntModel(params.trackInterval, 0, 0, MAX_TRACK_INTERVAL);
+        Box boxTrack = Box.createHorizontalBox();
+        boxTrack.setBorder(BorderFactory.createTitledBorder("Tracking"));
+        boxTrack.setToolTipText("For video: between full detections search the first model objects only around the previous detections");
+        boxTrack.add(Box.createHorizontalGlue());
+        boxTrack.add(makeSliderVert(modelTrackInterval, "Interval", "Full detection every N frames; 0 - on every frame"));
+        boxTrack.add(Box.createHorizontalGlue());
+        addChangeListener("params.trackInterval", modelTrackInterval, v -> params.trackInterval = v, null);
+        box.add(boxTrack);
+        box.add(Box.createVerticalStrut(5));
 
 
         JPanel panelOptions = new JPanel();
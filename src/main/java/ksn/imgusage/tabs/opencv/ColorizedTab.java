@@ -7,6 +7,7 @@ import java.util.stream.Stream;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.JCheckBox;
+import javax.swing.SwingUtilities;
 
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
@@ -88,7 +89,7 @@ public class ColorizedTab extends OpencvFilterTab<ColorizedTabParams> {
             "WhiteBalancer",
             "params.useWhiteBalancer",
             "Applies white balancing to the input image", null);
-        onEnablerUseWhiteBalancer = canUseWhiteBalancer -> UiHelper.enableAllChilds(cntrlUseWhiteBalancer, canUseWhiteBalancer);
+        onEnablerUseWhiteBalancer = canUseWhiteBalancer -> SwingUtilities.invokeLater(() -> UiHelper.enableAllChilds(cntrlUseWhiteBalancer, canUseWhiteBalancer));
 
         Box box4Options = Box.createVerticalBox();
         box4Options.setBorder(BorderFactory.createTitledBorder(""));
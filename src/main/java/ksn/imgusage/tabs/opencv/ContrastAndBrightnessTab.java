@@ -30,6 +30,9 @@ public class ContrastAndBrightnessTab extends OpencvFilterTab<ContrastAndBrightn
     private static final double MAX_ALPHA =   10;
     public  static final double MIN_BETA  = -1600;
     private static final double MAX_BETA  =  300;
+    /** grid of alpha values for automatic white color adjustment */
+    private static final double ALPHA_STEP  = 0.01;
+    private static final int    ALPHA_STEPS = (int)Math.round((MAX_ALPHA - MIN_ALPHA) / ALPHA_STEP);
 
     private ContrastAndBrightnessTabParams params;
     private Consumer<Double> setterAlpha;
@@ -60,7 +63,8 @@ public class ContrastAndBrightnessTab extends OpencvFilterTab<ContrastAndBrightn
             beta = params.beta;
             alpha = findBestAlphaForWhiteColor(beta);
             logger.trace(String.format(Locale.US, "findBestAlphaForWhiteColor: alpha=%.2f, beta=%.2f", alpha, beta));
-            setterAlpha.accept(alpha);
+            if (setterAlpha != null)
+                setterAlpha.accept(alpha);
           //setterBeta .accept(beta);
         } else
 
@@ -70,12 +74,17 @@ public class ContrastAndBrightnessTab extends OpencvFilterTab<ContrastAndBrightn
             beta  = val.getSecond();
             logger.trace(String.format(Locale.US, "automaticBrightnessAndContrast: alpha=%.2f, beta=%.2f", alpha, beta));
 
-            setterAlpha.accept(alpha);
-            setterBeta .accept(beta);
+            if (setterAlpha != null)
+                setterAlpha.accept(alpha);
+            if (setterBeta != null)
+                setterBeta .accept(beta);
         }
 
         Mat dst = new Mat();
-        Core.convertScaleAbs(imageMat, dst, alpha, beta);
+        if (imageMat.depth() == CvType.CV_8U)
+            Core.LUT(imageMat, makeLut(alpha, beta), dst); // same as convertScaleAbs, by 256 values
+        else
+            Core.convertScaleAbs(imageMat, dst, alpha, beta);
         imageMat = dst;
     }
 
@@ -240,6 +249,21 @@ public class ContrastAndBrightnessTab extends OpencvFilterTab<ContrastAndBrightn
         return new Pair<>(alpha, beta);
     }
 
+    /** value of {@link Core#convertScaleAbs} for the pixel value */
+    private static int scaleAbs(int value, double alpha, double beta) {
+        return (int)Math.min(255, Math.rint(Math.abs(alpha * value + beta)));
+    }
+
+    /** convertScaleAbs as a lookup table of 8-bit values */
+    private static Mat makeLut(double alpha, double beta) {
+        byte[] table = new byte[256];
+        for (int v = 0; v < 256; ++v)
+            table[v] = (byte)scaleAbs(v, alpha, beta);
+        Mat lut = new Mat(1, 256, CvType.CV_8UC1);
+        lut.put(0, 0, table);
+        return lut;
+    }
+
     private static double calcWhiteColor(Mat mat) {
         Mat gray = OpenCvHelper.toGray(mat);
 
@@ -264,9 +288,62 @@ public class ContrastAndBrightnessTab extends OpencvFilterTab<ContrastAndBrightn
         return percent;
     }
 
+    /** 256-bin histogram of 8-bit single channel image */
+    private static long[] histogram(Mat gray) {
+        Mat hist = new Mat();
+        Imgproc.calcHist(
+             Arrays.asList(gray),
+             new MatOfInt(0),
+             new Mat(),
+             hist,
+             new MatOfInt(256),
+             new MatOfFloat(0, 256));
+        float[] bins = new float[256];
+        hist.get(0, 0, bins);
+
+        long[] res = new long[256];
+        for (int v = 0; v < 256; ++v)
+            res[v] = (long)bins[v];
+        return res;
+    }
+
+    /** Percentage of white pixels after convertScaleAbs, by the histogram of the gray source:
+     *  the lookup table is applied to the gray values.
+     * <br> Exact for the gray source; for the color one the gray of the result is approximated by the result of the gray. */
+    private static double calcWhiteColor(long[] hist, double alpha, double beta) {
+        long total = 0;
+        long cntWhite = 0;
+        for (int v = 0; v < 256; ++v) {
+            total += hist[v];
+            if (scaleAbs(v, alpha, beta) == 255)
+                cntWhite += hist[v];
+        }
+        if (total == 0)
+            return 0;
+        return cntWhite * 100.0 / total;
+    }
+
     private double findBestAlphaForWhiteColor(double beta) {
         Mat src = getSourceMat();
-        for (double alpha = MIN_ALPHA; alpha <= MAX_ALPHA; alpha += 0.01) {
+        if (src.depth() != CvType.CV_8U)
+            return findBestAlphaForWhiteColorByImage(src, beta);
+
+        long[] hist = histogram(OpenCvHelper.toGray(src));
+
+        // the first alpha of the grid (white percentage is not monotonic by alpha if beta < -255)
+        for (int i = 0; i <= ALPHA_STEPS; ++i) {
+            double alpha = MIN_ALPHA + i * ALPHA_STEP;
+            if (params.whitePercent <= calcWhiteColor(hist, alpha, beta))
+                return alpha;
+        }
+
+        throw new IllegalArgumentException("Alpha value not found for white backgroung percentage " + params.whitePercent);
+    }
+
+    /** not 8-bit source: convertScaleAbs of the whole image for each alpha */
+    private double findBestAlphaForWhiteColorByImage(Mat src, double beta) {
+        for (int i = 0; i <= ALPHA_STEPS; ++i) {
+            double alpha = MIN_ALPHA + i * ALPHA_STEP;
             Mat dst = new Mat();
             Core.convertScaleAbs(src, dst, alpha, beta);
             double percent = calcWhiteColor(dst);
@@ -27,6 +27,7 @@ import ksn.imgusage.type.opencv.CvLineType;
 import ksn.imgusage.type.opencv.CvRetrievalModes;
 import ksn.imgusage.utils.GeomHelper;
 import ksn.imgusage.utils.OpenCvHelper;
+import ksn.imgusage.utils.RectIndex;
 
 /** <a href='https://docs.opencv.org/3.4.2/d3/dc0/group__imgproc__shape.html#ga17ed9f5d79ae97bd4c7cf18403e1689a'>Finds contours in a binary image</a> */
 public class FindContoursTab extends OpencvFilterTab<FindContoursTabParams> {
@@ -101,7 +102,8 @@ public class FindContoursTab extends OpencvFilterTab<FindContoursTabParams> {
         { // !!! recheck params !!!
             if (params.contourIdx >= contours.size())
                 params.contourIdx = contours.size() - 1;
-            setMaxContourIdx.accept(contours.size() - 1);
+            if (setMaxContourIdx != null)
+                setMaxContourIdx.accept(contours.size() - 1);
         }
 
 
@@ -302,27 +304,18 @@ public class FindContoursTab extends OpencvFilterTab<FindContoursTabParams> {
         Set<ContourContext> excludedAll = new HashSet<>();
         Set<Pair<ContourContext /* excluded */, ContourContext /* excludedFrom */>> excludedFrom = new HashSet<>();
         // exclude all inner rects
+        RectIndex<ContourContext> index = new RectIndex<>(finded.limited, cc -> cc.rc);
         for (ContourContext cc1 : finded.limited) {
             if (excludedAll.contains(cc1))
                 continue;
-            Rect rc1 = cc1.rc;
-            Point br1 = rc1.br();
-            for (ContourContext cc2 : finded.limited) {
+            for (ContourContext cc2 : index.findInside(cc1.rc)) {
                 if (cc1.equals(cc2))
                     continue;
                 if (excludedAll.contains(cc2))
                     continue;
 
-                Rect rc2 = cc2.rc;
-                Point br2 = rc2.br();
-                if ((rc2.x >= rc1.x) &&
-                    (rc2.y >= rc1.y) &&
-                    (br2.x <= br1.x) &&
-                    (br2.y <= br1.y))
-                {
-                    excludedAll.add(cc2);
-                    excludedFrom.add(new Pair<>(cc2, cc1));
-                }
+                excludedAll.add(cc2);
+                excludedFrom.add(new Pair<>(cc2, cc1));
             }
         }
 
@@ -4,7 +4,10 @@ import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.Container;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -16,9 +19,13 @@ import org.opencv.imgproc.Imgproc;
 
 import ksn.imgusage.model.SliderDoubleModel;
 import ksn.imgusage.model.SliderIntModel;
+import ksn.imgusage.tabs.ITab;
+import ksn.imgusage.type.TextLayout;
 import ksn.imgusage.type.dto.opencv.MserTabParams;
 import ksn.imgusage.utils.GeomHelper;
 import ksn.imgusage.utils.OpenCvHelper;
+import ksn.imgusage.utils.RectIndex;
+import ksn.imgusage.utils.RectUnion;
 
 /** <a href='https://docs.opencv.org/3.4.2/d3/d28/classcv_1_1MSER.html'>Maximally stable extremal region extractor</a> */
 public class MserTab extends OpencvFilterTab<MserTabParams> {
@@ -60,6 +67,8 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
 
     private static final int NUMBER_OF_BROKEN_VERTICAL_PARTS   = 4;
     private static final int NUMBER_OF_BROKEN_HORIZONTAL_PARTS = 3;
+    /** tiled detection: min size of the tile core, in margins */
+    private static final int MIN_TILE_CORE_TO_MARGIN = 4;
 
     private static final Scalar BLACK   = new Scalar(0);
     private static final Scalar WHITE   = new Scalar(0xFF);
@@ -82,6 +91,16 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
     private int maxAreaWidth;
     private int maxAreaHeight;
 
+    /** sub-stage cache: raw regions of the last detection; reused while the source and the detector parameters are the same */
+    private Mat              cachedRegionsSource;
+    private String           cachedRegionsKey;
+    private List<MatOfPoint> cachedRegions;
+
+    /** result data: lines, words and symbols of the last evaluation */
+    private TextLayout textLayout;
+    /** headless data export: don`t render the result, only the text layout is needed */
+    private boolean layoutOnly;
+
     @Override
     public Component makeTab(MserTabParams params) {
         if (params == null)
@@ -121,6 +140,16 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
         WordTmp(Rect position) { this.position = position; }
     }
 
+    /** see {@link #detectRegionsTiled} */
+    private static class RegionKey {
+        final MatOfPoint region;
+        final Rect rc; // in image coordinates
+        final long area;
+        RegionKey(MatOfPoint region, Rect rc) { this.region = region;
+                                                this.rc     = rc;
+                                                this.area   = region.total(); }
+    }
+
     private static class LineTmp {
         final Rect position;
         List<WordTmp> words = new ArrayList<>();
@@ -146,11 +175,62 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
         fitSymbolHeight(allLines);
         stuckSymbols(allLines);
 
-        showResult(allLines);
+        textLayout = toTextLayout(allLines, imageMat.size());
+        if (!layoutOnly)
+            showResult(allLines);
     }
 
-    private List<SymbolTmp> findAllSymbols() {
-        MSER mser = MSER.create(
+    /** text layout of the last evaluation; null - not evaluated, or the result is taken from the stage cache */
+    public TextLayout getTextLayout() {
+        return textLayout;
+    }
+
+    /** @param layoutOnly true - skip rendering of the result image (it stays the copy of the source): only {@link #getTextLayout()} is needed */
+    public void setLayoutOnly(boolean layoutOnly) {
+        this.layoutOnly = layoutOnly;
+    }
+
+    @Override
+    protected void resetImage() {
+        textLayout = null;
+        super.resetImage();
+    }
+
+    @Override
+    protected void setResultExtra(Object extra) {
+        super.setResultExtra(extra);
+        textLayout = null; // not cached
+    }
+
+    private static TextLayout toTextLayout(List<LineTmp> allLines, Size imageSize) {
+        TextLayout layout = new TextLayout();
+        layout.imageSize = new ksn.imgusage.type.Size((int)imageSize.width, (int)imageSize.height);
+        for (LineTmp lineItem : allLines) {
+            TextLayout.Line line = new TextLayout.Line();
+            line.position = toRect(lineItem.position);
+            for (WordTmp wordItem : lineItem.words) {
+                TextLayout.Word word = new TextLayout.Word();
+                word.position = toRect(wordItem.position);
+                for (SymbolTmp symbolItem : wordItem.symbols) {
+                    TextLayout.Symbol symbol = new TextLayout.Symbol();
+                    symbol.position = toRect(symbolItem.position);
+                    for (InnerTmp inner : symbolItem.inners)
+                        symbol.inners.add(toRect(inner.position));
+                    word.symbols.add(symbol);
+                }
+                line.words.add(word);
+            }
+            layout.lines.add(line);
+        }
+        return layout;
+    }
+
+    private static ksn.imgusage.type.Rect toRect(Rect rc) {
+        return new ksn.imgusage.type.Rect(rc.x, rc.y, rc.width, rc.height);
+    }
+
+    private MSER createMser() {
+        return MSER.create(
             params.delta,
 
             // filter #1 by area
@@ -163,11 +243,126 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
             params.areaThreshold,
             params.minMargin,
             params.edgeBlurSize);
+    }
+
+    /** detector parameters: all that affects the raw regions */
+    private String getDetectorKey() {
+        return String.format(Locale.US, "delta=%d, minArea=%d, maxArea=%d, maxVariation=%f, minDiversity=%f, maxEvolution=%d, areaThreshold=%f, minMargin=%f, edgeBlurSize=%d, tiled=%b",
+            params.delta,
+            minAreaWidth * minAreaHeight,
+            maxAreaWidth * maxAreaHeight,
+            params.maxVariation,
+            params.minDiversity,
+            params.maxEvolution,
+            params.areaThreshold,
+            params.minMargin,
+            params.edgeBlurSize,
+            params.tiled);
+    }
+
+    /** Raw regions; the last ones are reused if only grouping or rendering parameters are changed.
+     * <br> The source is compared by identity: the result Mat of the previous OpenCV tab is a new object after each its evaluation
+     *      (other tabs give a new converted Mat on each request, so they are not cached).
+     * <br> The returned regions are shared with the cache and must not be modified. */
+    private List<MatOfPoint> detectRegions() {
+        ITab<?> prev = tabManager.getPrevTab(this);
+        Mat source = (prev instanceof OpencvFilterTab) ? getSourceMat(prev) : null;
+        String key = getDetectorKey();
+        if ((source != null) && (source == cachedRegionsSource) && key.equals(cachedRegionsKey)) {
+            logger.trace("detectRegions: reuse {} regions", cachedRegions.size());
+            return cachedRegions;
+        }
+
+        List<MatOfPoint> regions = detectRegionsUncached();
+        cachedRegionsSource = source;
+        cachedRegionsKey    = key;
+        cachedRegions       = regions;
+        return regions;
+    }
+
+    private List<MatOfPoint> detectRegionsUncached() {
+        if (params.tiled) {
+            // the margin holds the max region box (filter #2) with its MSER context:
+            // the parent at +delta levels, which is at most (1 + maxVariation) times larger for the stable region,
+            // and the edge blur of the color image
+            int marginX = (int)Math.ceil(maxAreaWidth  * (1 + params.maxVariation)) + params.edgeBlurSize + 1;
+            int marginY = (int)Math.ceil(maxAreaHeight * (1 + params.maxVariation)) + params.edgeBlurSize + 1;
+            List<MatOfPoint> regions = detectRegionsTiled(imageMat, this::createMser, marginX, marginY);
+            if (regions != null)
+                return regions;
+        }
 
         List<MatOfPoint> regions = new ArrayList<>(); // resulting list of point sets
-        mser.detectRegions(imageMat,
-                           regions,
-                           new MatOfRect()); // resulting bounding boxes
+        createMser().detectRegions(imageMat,
+                                   regions,
+                                   new MatOfRect()); // resulting bounding boxes
+        return regions;
+    }
+
+    /** Detect regions in overlapping tiles, in parallel.
+     * <br> The core of each tile is surrounded by the margin, so every region with its context is entirely in some tile.
+     *      The region is taken only from the tile whose core contains its top-left corner (deduplication),
+     *      and only if it does not touch the inner edges of the tile (not truncated).
+     * <br> The native order follows the internal flood fill of MSER and is not reproducible from tiles;
+     *      the regions are returned by bounding box (top, left, height, width), then by area,
+     *      so the order does not depend on the grid (number of processors).
+     *      The regions with the same box and area are from the same tile, in its native order.
+     * <br> {@link #findAllSymbols} gives the nested region to the first symbol containing it, so the order affects the result:
+     *      tiled and untiled detections give the same regions (see MserTabTest), but the text layout can differ.
+     * @return null - the image is too small for tiling */
+    static List<MatOfPoint> detectRegionsTiled(Mat image, Supplier<MSER> mserFactory, int marginX, int marginY) {
+        int grid = (int)Math.ceil(Math.sqrt(Runtime.getRuntime().availableProcessors()));
+        return detectRegionsTiled(image, mserFactory, marginX, marginY, grid);
+    }
+
+    static List<MatOfPoint> detectRegionsTiled(Mat image, Supplier<MSER> mserFactory, int marginX, int marginY, int grid) {
+        int coreW = Math.max(MIN_TILE_CORE_TO_MARGIN * marginX, (image.cols() + grid - 1) / grid);
+        int coreH = Math.max(MIN_TILE_CORE_TO_MARGIN * marginY, (image.rows() + grid - 1) / grid);
+        if ((coreW >= image.cols()) && (coreH >= image.rows()))
+            return null;
+
+        List<Rect> cores = new ArrayList<>();
+        for (int y = 0; y < image.rows(); y += coreH)
+            for (int x = 0; x < image.cols(); x += coreW)
+                cores.add(new Rect(x, y, Math.min(coreW, image.cols() - x), Math.min(coreH, image.rows() - y)));
+
+        Rect imageRect = new Rect(0, 0, image.cols(), image.rows());
+        return cores.parallelStream()
+            .map(core -> {
+                Rect tile = GeomHelper.intersect(imageRect, new Rect(core.x - marginX, core.y - marginY, core.width + 2 * marginX, core.height + 2 * marginY));
+                List<MatOfPoint> tileRegions = new ArrayList<>();
+                mserFactory.get().detectRegions(image.submat(tile), tileRegions, new MatOfRect());
+
+                List<RegionKey> own = new ArrayList<>();
+                for (MatOfPoint region : tileRegions) {
+                    Rect rc = Imgproc.boundingRect(region); // in tile coordinates
+                    int x = tile.x + rc.x;
+                    int y = tile.y + rc.y;
+                    if (!core.contains(new Point(x, y)))
+                        continue; // owned by another tile
+                    boolean truncated = ((rc.x == 0) && (tile.x > 0))
+                                     || ((rc.y == 0) && (tile.y > 0))
+                                     || ((rc.x + rc.width  == tile.width ) && (tile.x + tile.width  < imageRect.width ))
+                                     || ((rc.y + rc.height == tile.height) && (tile.y + tile.height < imageRect.height));
+                    if (truncated)
+                        continue;
+                    Core.add(region, new Scalar(tile.x, tile.y), region); // to image coordinates
+                    own.add(new RegionKey(region, new Rect(x, y, rc.width, rc.height)));
+                }
+                return own;
+            })
+            .flatMap(List::stream) // in order of tiles
+            .sorted(Comparator.<RegionKey>comparingInt(k -> k.rc.y) // stable: keeps the tile order of equal keys
+                              .thenComparingInt(k -> k.rc.x)
+                              .thenComparingInt(k -> k.rc.height)
+                              .thenComparingInt(k -> k.rc.width)
+                              .thenComparingLong(k -> k.area))
+            .map(k -> k.region)
+            .collect(Collectors.toList());
+    }
+
+    private List<SymbolTmp> findAllSymbols() {
+        List<MatOfPoint> regions = detectRegions();
         // filter #2 by size (width and height)
         regions = regions.stream()
                 .filter(contour -> {
@@ -185,21 +380,18 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
                     .collect(Collectors.toList());
 
         logger.trace("Find inner regions");
+        RectIndex<SymbolTmp> symbolIndex = new RectIndex<>(allSymbols, s -> s.position);
         for (SymbolTmp symbol : allSymbols) {
             if (symbol.handled)
                 continue;
-            for (SymbolTmp symbol2 : allSymbols) {
+            for (SymbolTmp symbol2 : symbolIndex.findInside(symbol.position)) {
                 if (symbol == symbol2) // by ref
                     continue;
                 if (symbol2.handled)
                     continue;
-                Rect rc1 = symbol.position;
-                Rect rc2 = symbol2.position;
-                if (GeomHelper.isInside(rc1, rc2)) {
-                    symbol2.handled = true; // mark is inner
-                    symbol.inners.add(new InnerTmp(symbol2.contours.get(0), symbol2.position));
-                    symbol.inners.addAll(symbol2.inners);
-                }
+                symbol2.handled = true; // mark is inner
+                symbol.inners.add(new InnerTmp(symbol2.contours.get(0), symbol2.position));
+                symbol.inners.addAll(symbol2.inners);
             }
         }
         allSymbols = allSymbols.stream()
@@ -210,15 +402,12 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
     }
 
     private List<WordTmp> findAllWords(List<SymbolTmp> allSymbols) {
-        logger.trace("Draw symbols masks");
-        Mat maskChars = Mat.zeros(imageMat.size(), CvType.CV_8UC1);
-        for (SymbolTmp symbol : allSymbols) {
-            Mat roi = new Mat(maskChars, symbol.position);
-            roi.setTo(WHITE);
-        }
+        List<Rect> symbolRects = allSymbols.stream()
+                .map(s -> s.position)
+                .collect(Collectors.toList());
 
         logger.trace("Collect word regions");
-        List<WordTmp> allWords = collectMaskedRegions(maskChars, (int)(params.maxSymbol.width * params.wordWidthCoef), 1)
+        List<WordTmp> allWords = collectMaskedRegions(symbolRects, imageMat.size(), (int)(params.maxSymbol.width * params.wordWidthCoef), 1)
                 .stream()
                 .sorted((rc1, rc2) -> Integer.compare(rc1.width * rc1.height,
                                                       rc2.width * rc2.height))
@@ -227,17 +416,14 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
 
         logger.trace("Build words");
         allSymbols.forEach(s -> s.handled = false); // reset
+        RectIndex<SymbolTmp> symbolIndex = new RectIndex<>(allSymbols, s -> s.position);
         for (WordTmp wordItem : allWords) {
-            Rect rcWord = wordItem.position;
-            for (SymbolTmp symbolItem : allSymbols) {
+            for (SymbolTmp symbolItem : symbolIndex.findInside(wordItem.position)) {
                 if (symbolItem.handled)
                     continue;
 
-                Rect rcSymbol = symbolItem.position;
-                if (GeomHelper.isInside(rcWord, rcSymbol)) {
-                    wordItem.symbols.add(symbolItem);
-                    symbolItem.handled = true;
-                }
+                wordItem.symbols.add(symbolItem);
+                symbolItem.handled = true;
             }
         }
         for (SymbolTmp symbolTmp : allSymbols)
@@ -245,21 +431,18 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
                 logger.warn("Bad algorithm - symbol is failed: rc={}", symbolTmp.position);
 
         // union intrsected words
+        RectIndex<WordTmp> wordIndex = new RectIndex<>(allWords, w -> w.position);
         for (WordTmp wordItem : allWords) {
             if (wordItem.handled)
                 continue;
-            Rect rcWord = wordItem.position;
-            for (WordTmp wordItem2 : allWords) {
+            for (WordTmp wordItem2 : wordIndex.findInside(wordItem.position)) {
                 if (wordItem == wordItem2) // by ref
                     continue;
                 if (wordItem2.handled)
                     continue;
 
-                Rect rcWord2 = wordItem2.position;
-                if (GeomHelper.isInside(rcWord, rcWord2)) {
-                    wordItem.symbols.addAll(wordItem2.symbols);
-                    wordItem2.symbols.clear();
-                }
+                wordItem.symbols.addAll(wordItem2.symbols);
+                wordItem2.symbols.clear();
             }
         }
         allWords = allWords.stream()
@@ -274,19 +457,16 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
     }
 
     private List<LineTmp> findAllLines(List<WordTmp> allWords) {
-        logger.trace("Draw words masks");
-        Mat maskWords = Mat.zeros(imageMat.size(), CvType.CV_8UC1);
+        List<Rect> symbolRects = new ArrayList<>();
         for (WordTmp w : allWords) {
-            for (SymbolTmp symbol : w.symbols) {
-                Mat roi = new Mat(maskWords, symbol.position);
-                roi.setTo(WHITE);
-            }
+            for (SymbolTmp symbol : w.symbols)
+                symbolRects.add(symbol.position);
 
             w.handled = false;
         }
 
         logger.trace("Collect line regions");
-        List<LineTmp> allLines = collectMaskedRegions(maskWords, (int)(params.maxSymbol.width * params.lineWidthCoef), 2)
+        List<LineTmp> allLines = collectMaskedRegions(symbolRects, imageMat.size(), (int)(params.maxSymbol.width * params.lineWidthCoef), 2)
                 .stream()
                 .sorted((rc1, rc2) -> Integer.compare(rc1.width * rc1.height,
                                                       rc2.width * rc2.height))
@@ -295,19 +475,16 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
 
         logger.trace("Build lines");
         allWords.forEach(w -> w.handled = false); // reset
+        RectIndex<WordTmp> wordIndex = new RectIndex<>(allWords, w -> w.position);
         for (LineTmp lineItem : allLines) {
             boolean any = false;
-            Rect rcLine = lineItem.position;
-            for (WordTmp wordItem : allWords) {
+            for (WordTmp wordItem : wordIndex.findInside(lineItem.position)) {
                 if (wordItem.handled)
                     continue;
 
-                Rect rcWord = wordItem.position;
-                if (GeomHelper.isInside(rcLine, rcWord)) {
-                    lineItem.words.add(wordItem);
-                    wordItem.handled = true;
-                    any = true;
-                }
+                lineItem.words.add(wordItem);
+                wordItem.handled = true;
+                any = true;
             }
             if (!any)
                 logger.warn("Bad algorithm - line is failed: rc={}", lineItem.position);
@@ -587,22 +764,12 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
         return s1;
     }
 
-    private static List<Rect> collectMaskedRegions(Mat mask, int dilateX, int dilateY) {
-        Mat morphology = new Mat();
-        Mat kernel = new Mat(dilateY, dilateX, CvType.CV_8UC1, WHITE);
-        Imgproc.morphologyEx(mask, morphology, Imgproc.MORPH_DILATE, kernel);
-
-        List<MatOfPoint> contours = new ArrayList<>();
-        Imgproc.findContours(
-                morphology,
-                contours,
-                new Mat(), // hierarchy,
-                Imgproc.RETR_EXTERNAL,
-                Imgproc.CHAIN_APPROX_NONE);
+    /** regions of the mask of rects, dilated by (dilateX x dilateY) kernel; see {@link RectUnion#dilatedComponents} */
+    private static List<Rect> collectMaskedRegions(List<Rect> rects, Size imageSize, int dilateX, int dilateY) {
+        List<Rect> components = RectUnion.dilatedComponents(rects, imageSize, dilateX, dilateY);
 
-        List<Rect> res = new ArrayList<>(contours.size());
-        for (MatOfPoint element : contours) {
-            Rect rc = Imgproc.boundingRect(element);
+        List<Rect> res = new ArrayList<>(components.size());
+        for (Rect rc : components) {
             if (rc.width > dilateX) {
                 rc.x += (dilateX / 2.0) - 0.5;
                 rc.width -= dilateX - 1;
@@ -696,6 +863,13 @@ public class MserTab extends OpencvFilterTab<MserTabParams> {
         box4Sliders2.add(Box.createHorizontalStrut(2));
         box4Sliders2.add(makeSliderVert(modelMaxVariation, "Variation", "MAX Variation: Prune the area have similar size to its children"));
         box4Sliders2.add(Box.createHorizontalGlue());
+        box4Sliders2.add(makeCheckBox(() -> params.tiled,                                              // getter
+                                      v  -> params.tiled = v,                                          // setter
+                                      "Tiled",                                                         // title
+                                      "params.tiled",                                                  // paramName
+                                      "Detect regions in overlapping tiles, in parallel (for large images); the regions are in another order, so the result can differ", // tip
+                                      null));                                                          // customListener
+        box4Sliders2.add(Box.createHorizontalGlue());
 
         Box box4Sliders3 = Box.createHorizontalBox();
         box4Sliders3.add(Box.createHorizontalGlue());
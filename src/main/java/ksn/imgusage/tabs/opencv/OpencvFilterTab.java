@@ -13,7 +13,6 @@ import javax.swing.Box;
 import org.opencv.core.Mat;
 
 import ksn.imgusage.tabs.BaseTab;
-import ksn.imgusage.tabs.ITab;
 import ksn.imgusage.tabs.ITabParams;
 import ksn.imgusage.type.opencv.CvBorderTypes;
 import ksn.imgusage.type.opencv.CvInterpolationFlags;
@@ -30,21 +29,6 @@ public abstract class OpencvFilterTab<TTabParams extends ITabParams> extends Bas
     /** filtered image of the current tab */
     protected Mat imageMat;
 
-    protected Mat getSourceMat() {
-        ITab<?> source = tabManager.getPrevTab(this);
-        return getSourceMat(source);
-    }
-
-    protected static Mat getSourceMat(ITab<?> source) {
-        if (source instanceof OpencvFilterTab)
-            return ((OpencvFilterTab<?>)source).imageMat;
-
-        BufferedImage src = source.getImage();
-        if (src == null)
-            return null;
-        return ImgHelper.toMat(src);
-    }
-
     @Override
     public String getGroup() {
         return GROUP;
@@ -60,7 +44,28 @@ public abstract class OpencvFilterTab<TTabParams extends ITabParams> extends Bas
         // specific filter
         applyOpencvFilter();
 
-        image = ImgHelper.toBufferedImage(imageMat);
+        image = null; // see buildImage
+    }
+
+    @Override
+    public Mat getImageMat() {
+        if (!evaluateResult())
+            return null;
+        if (imageMat == null)
+            return super.getImageMat(); // failed
+        return imageMat;
+    }
+
+    @Override
+    protected boolean hasResult() {
+        return (imageMat != null) || super.hasResult();
+    }
+
+    @Override
+    protected BufferedImage buildImage() {
+        if ((image == null) && (imageMat != null))
+            image = ImgHelper.toBufferedImage(imageMat);
+        return image;
     }
 
     @Override
@@ -69,6 +74,16 @@ public abstract class OpencvFilterTab<TTabParams extends ITabParams> extends Bas
         super.resetImage();
     }
 
+    @Override
+    protected Object getResultExtra() {
+        return imageMat;
+    }
+
+    @Override
+    protected void setResultExtra(Object extra) {
+        imageMat = (Mat)extra;
+    }
+
     public Component makeInterpolations(
             Supplier<CvInterpolationFlags> getter,
             Consumer<CvInterpolationFlags> setter,
@@ -7,6 +7,7 @@ import java.util.function.Supplier;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
+import javax.swing.SwingUtilities;
 
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
@@ -53,36 +54,50 @@ public class PerspectiveTransformTab extends OpencvFilterTab<PerspectiveTransfor
     @Override
     public String getDescription() { return TAB_DESCRIPTION; }
 
+    @Override
+    protected String makeStageKey() {
+        String key = super.makeStageKey();
+        if ((key == null) || !params.applyToFirstTab)
+            return key;
+        String firstKey = getStageKey(firstTabSupplier.get());
+        return (firstKey == null) ? null : key + ":" + firstKey;
+    }
+
     @Override
     protected void applyOpencvFilter() {
-        checkModelsDiapason.run();
+        if (checkModelsDiapason != null)
+            SwingUtilities.invokeLater(checkModelsDiapason); // only the sliders: the values are limited here, see below
+
+        // the same limits as checkModelsDiapason of the sliders
+        int srcW = imageMat.width();
+        int srcH = imageMat.height();
+        int dx = srcW / 10;
+        int dy = srcH / 10;
+        Point lt = toPoint(params.pointLeftTop    , -dx, -dy, srcW + dx, srcH + dy);
+        Point rt = toPoint(params.pointRightTop   , -dx, -dy, srcW + dx, srcH + dy);
+        Point lb = toPoint(params.pointLeftBottom , -dx, -dy, srcW + dx, srcH + dy);
+        Point rb = toPoint(params.pointRightBottom, -dx, -dy, srcW + dx, srcH + dy);
+        int dsizeW = Math.min(params.dsize.width , srcW * 2);
+        int dsizeH = Math.min(params.dsize.height, srcH * 2);
 
         imageMat = params.applyToFirstTab
-                ? getSourceMat(firstTabSupplier.get())
+                ? getSourceMat(firstTabSupplier.get()).clone() // never draw on the result of the first tab
                 : imageMat;
         if (params.showRegion) {
 
             imageMat = OpenCvHelper.to3Channel(imageMat);
 
-            Imgproc.line(imageMat, new Point(params.pointLeftTop    .x, params.pointLeftTop    .y),
-                                   new Point(params.pointRightTop   .x, params.pointRightTop   .y), new Scalar(255,   0,   0), 3);
-            Imgproc.line(imageMat, new Point(params.pointRightTop   .x, params.pointRightTop   .y),
-                                   new Point(params.pointRightBottom.x, params.pointRightBottom.y), new Scalar(  0, 255,   0), 3);
-            Imgproc.line(imageMat, new Point(params.pointRightBottom.x, params.pointRightBottom.y),
-                                   new Point(params.pointLeftBottom .x, params.pointLeftBottom .y), new Scalar(  0,   0, 255), 3);
-            Imgproc.line(imageMat, new Point(params.pointLeftBottom .x, params.pointLeftBottom .y),
-                                   new Point(params.pointLeftTop    .x, params.pointLeftTop    .y), new Scalar(255, 200,   0), 3);
+            Imgproc.line(imageMat, lt, rt, new Scalar(255,   0,   0), 3);
+            Imgproc.line(imageMat, rt, rb, new Scalar(  0, 255,   0), 3);
+            Imgproc.line(imageMat, rb, lb, new Scalar(  0,   0, 255), 3);
+            Imgproc.line(imageMat, lb, lt, new Scalar(255, 200,   0), 3);
 
             return;
         }
 
-        Mat src = new MatOfPoint2f(
-            new Point(params.pointLeftTop    .x, params.pointLeftTop    .y),
-            new Point(params.pointRightTop   .x, params.pointRightTop   .y),
-            new Point(params.pointLeftBottom .x, params.pointLeftBottom .y),
-            new Point(params.pointRightBottom.x, params.pointRightBottom.y));
-        int w = (params.dsize.width  == 0) ? imageMat.width () : params.dsize.width;
-        int h = (params.dsize.height == 0) ? imageMat.height() : params.dsize.height;
+        Mat src = new MatOfPoint2f(lt, rt, lb, rb);
+        int w = (dsizeW == 0) ? imageMat.width () : dsizeW;
+        int h = (dsizeH == 0) ? imageMat.height() : dsizeH;
         Mat dst = new MatOfPoint2f(
                 new Point(0, 0),
                 new Point(w, 0),
@@ -96,14 +111,19 @@ public class PerspectiveTransformTab extends OpencvFilterTab<PerspectiveTransfor
             dst2,
             transformMatrix,
             new Size(
-                    params.dsize.width,
-                    params.dsize.height),
+                    dsizeW,
+                    dsizeH),
                 params.getInterpolation().getVal(
                     false,
                     params.useFlagInverseMap));
         imageMat = dst2;
     }
 
+    private static Point toPoint(ksn.imgusage.type.Point pt, int minX, int minY, int maxX, int maxY) {
+        return new Point(Math.max(minX, Math.min(maxX, pt.x)),
+                         Math.max(minY, Math.min(maxY, pt.y)));
+    }
+
     @Override
     protected Component makeOptions() {
         Box box4Options = Box.createVerticalBox();
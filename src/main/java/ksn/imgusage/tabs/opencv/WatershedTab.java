@@ -1,9 +1,6 @@
 package ksn.imgusage.tabs.opencv;
 
 import java.awt.Component;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Stream;
 
@@ -15,7 +12,6 @@ import org.opencv.imgproc.Imgproc;
 
 import ksn.imgusage.type.dto.opencv.WatershedTabParams;
 import ksn.imgusage.type.dto.opencv.WatershedTabParams.EShowSteps;
-import ksn.imgusage.type.opencv.CvLineType;
 import ksn.imgusage.utils.OpenCvHelper;
 
 /** <a href='https://docs.opencv.org/3.4.2/d7/d1b/group__imgproc__misc.html#ga3267243e4d3f95165d55a618c65ac6e1'>Performs a marker-based image segmentation using the watershed algorithm</a> */
@@ -47,34 +43,13 @@ public class WatershedTab extends OpencvFilterTab<WatershedTabParams> {
         // cast to gray image
         Mat imageGray = OpenCvHelper.toGray(imageMat);
 
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-        Imgproc.findContours(
-            imageGray, // src
-            contours , // out1
-            hierarchy, // out2
-            Imgproc.RETR_CCOMP,
-            Imgproc.CHAIN_APPROX_SIMPLE);
-
-        if (contours.isEmpty()) {
+        Mat markers = new Mat();
+        final int compCount = makeMarkers(imageGray, markers);
+        if (compCount == 0) {
             logger.warn("No any contours found!");
             return;
         }
 
-        final int compCount = contours.size();
-        Mat markers = new Mat(imageMat.size(), CvType.CV_32SC1, Scalar.all(0));
-        for (int idx = 0; idx < compCount; ++idx)
-            Imgproc.drawContours(
-                    markers,                         // Mat image
-                    contours,                        // List<MatOfPoint> contours
-                    idx,                             // int contourIdx
-                    Scalar.all(idx + 1),             // Scalar color
-                    CvLineType.FILLED.getVal(),      // int thickness
-                    CvLineType.LINE_8.getVal(),      // int lineType
-                    hierarchy,                       // Mat hierarchy
-                    +2147483647,                     // int maxLevel
-                    new Point());                    // Point offset
-
         if (params.showStep == EShowSteps.STEP1_CONTOURS) {
             imageMat = markers;
             return;
@@ -95,35 +70,27 @@ public class WatershedTab extends OpencvFilterTab<WatershedTabParams> {
 
         ///////////////////////////////////////////////////////////////
 
-        Random rnd = ThreadLocalRandom.current();
-        byte[][] colors = new byte[compCount][];
-        for (int i = 0; i < compCount; ++i) {
-            byte[] rgb = new byte[3];
-            rnd.nextBytes(rgb);
-            colors[i] = rgb;
+        // label -> color lookup table: slot 0 - boundaries (-1), slot 1 - background (0), slot 1+N - component N
+        byte[] lut = new byte[(compCount + 2) * 3];
+        lut[0] = lut[1] = lut[2] = (byte)0xFF; // white
+        byte[] colors = new byte[compCount * 3];
+        ThreadLocalRandom.current().nextBytes(colors);
+        System.arraycopy(colors, 0, lut, 2 * 3, colors.length);
+
+        // paint the watershed image: read all labels once, write all colors once
+        int[] labels = new int[(int)markers.total()];
+        markers.get(0, 0, labels);
+        byte[] bgr = new byte[labels.length * 3];
+        for (int i = 0, p = 0; i < labels.length; ++i, p += 3) {
+            int label = labels[i];
+            int slot = ((label < -1) || (label > compCount)) ? 1 : (label + 1);
+            int off = slot * 3;
+            bgr[p    ] = lut[off    ];
+            bgr[p + 1] = lut[off + 1];
+            bgr[p + 2] = lut[off + 2];
         }
-
         Mat wshed = new Mat(markers.size(), CvType.CV_8UC3);
-        byte[] clrWhite = new byte[] { (byte)0xFF, (byte)0xFF, (byte)0xFF };
-        byte[] clrBlack = new byte[] { (byte)0x00, (byte)0x00, (byte)0x00 };
-        // paint the watershed image
-        for (int i = 0; i < markers.rows(); i++) {
-            for (int j=0; j < markers.cols(); ++j) {
-                int[] data = { 0 };
-                int readed = markers.get(i, j, data);
-                if (readed < 1) {
-                    logger.error("hmmm...");
-                    continue;
-                }
-                int index = data[0];
-                if (index == -1)
-                    wshed.put(i, j, clrWhite);
-                else if (index <= 0 || index > compCount)
-                    wshed.put(i, j, clrBlack);
-                else
-                    wshed.put(i, j, colors[index - 1]);
-            }
-        }
+        wshed.put(0, 0, bgr);
 
         if (params.showStep == EShowSteps.STEP3_COLORIZED) {
             imageMat = wshed;
@@ -138,6 +105,53 @@ public class WatershedTab extends OpencvFilterTab<WatershedTabParams> {
         imageMat = dst;
     }
 
+    /** Markers of the watershed, as filled contours of {@link Imgproc#RETR_CCOMP} levels:
+     * <br> each 8-connected component of non-zero pixels, and each 4-connected hole inside of them, has its own label 1..N;
+     * <br> the outer background is 0.
+     * @param markers out: CV_32SC1
+     * @return number of components N */
+    private static int makeMarkers(Mat imageGray, Mat markers) {
+        Mat objects = new Mat();
+        Core.compare(imageGray, Scalar.all(0), objects, Core.CMP_NE);
+        int objCount = Imgproc.connectedComponents(objects, markers, 8, CvType.CV_32S) - 1;
+
+        Mat holes = new Mat();
+        Core.bitwise_not(objects, holes);
+        Mat holeLabels = new Mat();
+        int holeCount = Imgproc.connectedComponents(holes, holeLabels, 4, CvType.CV_32S) - 1;
+
+        int rows = markers.rows();
+        int cols = markers.cols();
+        int[] marks = new int[rows * cols];
+        int[] holeMarks = new int[rows * cols];
+        markers.get(0, 0, marks);
+        holeLabels.get(0, 0, holeMarks);
+
+        // background components touching the border are not holes
+        boolean[] outer = new boolean[holeCount + 1];
+        for (int x = 0; x < cols; ++x) {
+            outer[holeMarks[x]] = true;
+            outer[holeMarks[(rows - 1) * cols + x]] = true;
+        }
+        for (int y = 0; y < rows; ++y) {
+            outer[holeMarks[y * cols]] = true;
+            outer[holeMarks[y * cols + cols - 1]] = true;
+        }
+        int[] holeToMark = new int[holeCount + 1];
+        int count = objCount;
+        for (int h = 1; h <= holeCount; ++h)
+            if (!outer[h])
+                holeToMark[h] = ++count;
+
+        if (count > objCount) {
+            for (int i = 0; i < marks.length; ++i)
+                if (marks[i] == 0)
+                    marks[i] = holeToMark[holeMarks[i]];
+            markers.put(0, 0, marks);
+        }
+        return count;
+    }
+
     @Override
     protected Component makeOptions() {
         Box box4Steps = Box.createHorizontalBox();
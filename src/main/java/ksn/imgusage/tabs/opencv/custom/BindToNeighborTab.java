@@ -3,10 +3,9 @@ package ksn.imgusage.tabs.opencv.custom;
 import java.awt.Color;
 import java.awt.Component;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.function.BiConsumer;
 import java.util.function.IntConsumer;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import javax.swing.BorderFactory;
@@ -19,6 +18,7 @@ import org.opencv.imgproc.Imgproc;
 import ksn.imgusage.model.SliderIntModel;
 import ksn.imgusage.type.dto.opencv.custom.BindToNeighborTabParams;
 import ksn.imgusage.utils.OpenCvHelper;
+import ksn.imgusage.utils.RectIndex;
 
 /** Connect the nearest regions */
 public class BindToNeighborTab extends CustomTab<BindToNeighborTabParams> {
@@ -81,10 +81,11 @@ public class BindToNeighborTab extends CustomTab<BindToNeighborTabParams> {
             .filter(rc -> (rc.width >= params.minLimitContours.width) && (rc.height >= params.minLimitContours.height))
             .filter(rc -> (rc.width <= params.maxLimitContours.width) && (rc.height <= params.maxLimitContours.height))
             .collect(Collectors.toList());
-        SwingUtilities.invokeLater(() -> setMaxBindIndex.accept(limited.size() - 1));
+        if (setMaxBindIndex != null)
+            SwingUtilities.invokeLater(() -> setMaxBindIndex.accept(limited.size() - 1));
 
-        List<List<BindItem>> bindings = bind(limited);
-        bindings = filterNeighbor(bindings);
+        Bindings bindings = bind(limited);
+        filterNeighbor(bindings);
 
         { // restore color image
             Mat mat = new Mat();
@@ -105,18 +106,19 @@ public class BindToNeighborTab extends CustomTab<BindToNeighborTabParams> {
     private void drawLine(
         int index,
         List<Rect> regions,
-        List<List<BindItem>> bindings,
+        Bindings bindings,
         boolean showRectRegion,
         boolean showMinBindSize,
         boolean skipUp
     ) {
         Rect from = regions.get(index);
-        List<BindItem> toList = bindings.get(index);
 
-        for (BindItem item : toList) {
-            if (skipUp && (index < item.to))
+        for (int k = bindings.start[index]; k < bindings.start[index + 1]; ++k) {
+            if (bindings.deleted[k])
                 continue;
-            Rect to = regions.get(item.to);
+            if (skipUp && (index < bindings.to[k]))
+                continue;
+            Rect to = regions.get(bindings.to[k]);
 
             Point centerFrom = new Point(from.x + from.width / 2.0, from.y + from.height / 2.0);
             Point centerTo   = new Point(to  .x + to  .width / 2.2, to  .y + to  .height / 2.0);
@@ -131,8 +133,10 @@ public class BindToNeighborTab extends CustomTab<BindToNeighborTabParams> {
                                   new Point(from.x + from.width, from.y + from.height),
                                   GREEN, 1);
 
-            for (BindItem item : toList) {
-                Rect to = regions.get(item.to);
+            for (int k = bindings.start[index]; k < bindings.start[index + 1]; ++k) {
+                if (bindings.deleted[k])
+                    continue;
+                Rect to = regions.get(bindings.to[k]);
 
                 if (showRectRegion)
                     Imgproc.rectangle(imageMat,
@@ -140,92 +144,134 @@ public class BindToNeighborTab extends CustomTab<BindToNeighborTabParams> {
                                       new Point(to.x + to.width, to.y + to.height),
                                       RED, 1);
                 if (showMinBindSize)
-                    Imgproc.line(imageMat, item.minFrom, item.minTo, ORANGE, 2);
+                    Imgproc.line(imageMat,
+                                 new Point(bindings.minFromX[k], bindings.minFromY[k]),
+                                 new Point(bindings.minToX  [k], bindings.minToY  [k]),
+                                 ORANGE, 2);
             }
         }
     }
 
-    static class BindItem {
-        int to;
-        EAlignX alignX;
-        EAlignY alignY;
-        Point minFrom;
-        Point minTo;
+    /** Bindings of all regions, in primitive arrays (without object per pair).
+     * <br> Pairs of the region i: indices [start[i] .. start[i+1]), in the order of the target regions. */
+    static class Bindings {
+        final int[] start;
+        int count;
+        int[]     to       = new int[16];
+        /** ordinal of {@link EAlignX} */
+        byte[]    alignX   = new byte[16];
+        /** ordinal of {@link EAlignY} */
+        byte[]    alignY   = new byte[16];
+        double[]  minFromX = new double[16];
+        double[]  minFromY = new double[16];
+        double[]  minToX   = new double[16];
+        double[]  minToY   = new double[16];
+        boolean[] deleted  = new boolean[16];
+
+        Bindings(int regions) {
+            start = new int[regions + 1];
+        }
+
+        void add(int toIndex, EAlignX alignToX, EAlignY alignToY, double fromX, double fromY, double toX, double toY) {
+            if (count == to.length) {
+                int capacity = count * 2;
+                to       = Arrays.copyOf(to      , capacity);
+                alignX   = Arrays.copyOf(alignX  , capacity);
+                alignY   = Arrays.copyOf(alignY  , capacity);
+                minFromX = Arrays.copyOf(minFromX, capacity);
+                minFromY = Arrays.copyOf(minFromY, capacity);
+                minToX   = Arrays.copyOf(minToX  , capacity);
+                minToY   = Arrays.copyOf(minToY  , capacity);
+                deleted  = Arrays.copyOf(deleted , capacity);
+            }
+            to      [count] = toIndex;
+            alignX  [count] = (byte)alignToX.ordinal();
+            alignY  [count] = (byte)alignToY.ordinal();
+            minFromX[count] = fromX;
+            minFromY[count] = fromY;
+            minToX  [count] = toX;
+            minToY  [count] = toY;
+            ++count;
+        }
     }
 
-    private List<List<BindItem>> filterNeighbor(List<List<BindItem>> bindings) {
-        List<List<BindItem>> toDeleteAll = new ArrayList<>();
-
-        // delete by diagonal if exist perpendicular
-        for (int i = 0; i < bindings.size(); ++ i) {
-            List<BindItem> toDelete = new ArrayList<>();
-            toDeleteAll.add(toDelete);
-
-            List<BindItem> neighbors = bindings.get(i);
-
-            BiConsumer<Predicate<BindItem>, Predicate<BindItem>> check = (alignAxis, alignCenter) -> {
-                List<BindItem> byAxis = neighbors.stream()
-                    .filter(alignAxis::test)
-                    .collect(Collectors.toList());
-                if (byAxis.size() > 1) {
-                    BindItem center = byAxis.stream()
-                            .filter(alignCenter::test)
-                            .findAny()
-                            .orElseGet(() -> null);
-                    if (center != null)
-                        byAxis.stream()
-                            .filter(item -> item != center)
-                            .forEach(toDelete::add);
-                }
-            };
-            check.accept(item -> item.alignY == EAlignY.top   , item -> item.alignX == EAlignX.center);
-            check.accept(item -> item.alignY == EAlignY.bottom, item -> item.alignX == EAlignX.center);
-            check.accept(item -> item.alignX == EAlignX.left  , item -> item.alignY == EAlignY.center);
-            check.accept(item -> item.alignX == EAlignX.right , item -> item.alignY == EAlignY.center);
+    /** delete by diagonal if exist perpendicular */
+    private static void filterNeighbor(Bindings bindings) {
+        int top    = EAlignY.top   .ordinal();
+        int bottom = EAlignY.bottom.ordinal();
+        int left   = EAlignX.left  .ordinal();
+        int right  = EAlignX.right .ordinal();
+        int centerX = EAlignX.center.ordinal();
+        int centerY = EAlignY.center.ordinal();
+        for (int i = 0; i < bindings.start.length - 1; ++i) {
+            markDiagonals(bindings, i, bindings.alignY, top   , bindings.alignX, centerX);
+            markDiagonals(bindings, i, bindings.alignY, bottom, bindings.alignX, centerX);
+            markDiagonals(bindings, i, bindings.alignX, left  , bindings.alignY, centerY);
+            markDiagonals(bindings, i, bindings.alignX, right , bindings.alignY, centerY);
         }
+    }
 
-        List<List<BindItem>> res = new ArrayList<>(bindings.size());
-        for (int i = 0; i < bindings.size(); ++ i) {
-            List<BindItem> toDelete = toDeleteAll.get(i);
-            List<BindItem> neighbors = bindings.get(i);
-            List<BindItem> toAdd = neighbors.stream()
-                       .filter(item -> !toDelete.contains(item))
-                       .collect(Collectors.toList());
-            res.add(toAdd);
+    /** if there are several neighbors on the side (alignAxis), and one of them is perpendicular (alignCenter) - the others are deleted */
+    private static void markDiagonals(Bindings bindings, int i, byte[] alignAxis, int side, byte[] alignCenter, int center) {
+        int byAxis = 0;
+        int centerPair = -1;
+        for (int k = bindings.start[i]; k < bindings.start[i + 1]; ++k) {
+            if (alignAxis[k] != side)
+                continue;
+            ++byAxis;
+            if ((centerPair < 0) && (alignCenter[k] == center))
+                centerPair = k;
         }
-        return res;
+        if ((byAxis < 2) || (centerPair < 0))
+            return;
+        for (int k = bindings.start[i]; k < bindings.start[i + 1]; ++k)
+            if ((alignAxis[k] == side) && (k != centerPair))
+                bindings.deleted[k] = true;
     }
 
-    private List<List<BindItem>> bind(List<Rect> singles) {
-        List<List<BindItem>> res = new ArrayList<>(singles.size());
+    /** Only the regions near the source one are checked (by spatial index): the pair is bound only if the distance
+     *  between the nearest points is at most bindSize, and the nearest points are on the sides of the regions.
+     *  <br> Y margin includes max region height: see the nearest point of right-bottom neighbor. */
+    private Bindings bind(List<Rect> singles) {
+        Bindings res = new Bindings(singles.size());
+        int maxHeight = singles.stream().mapToInt(rc -> rc.height).max().orElse(0);
+        int marginX = params.bindSize + 1;
+        int marginY = params.bindSize + maxHeight + 1;
+        RectIndex<Integer> index = RectIndex.ofRects(singles);
         for (int i = 0; i < singles.size(); ++i) {
-            List<BindItem> to = new ArrayList<>();
-            res.add(to);
+            res.start[i] = res.count;
 
             Rect rcFrom = singles.get(i);
-            for (int j = 0; j < singles.size(); ++j) {
+            Rect near = new Rect(rcFrom.x - marginX, rcFrom.y - marginY, rcFrom.width + 2 * marginX, rcFrom.height + 2 * marginY);
+            for (int j : index.findIntersected(near)) {
                 if (i == j)
                     continue;
                 Rect rcTo = singles.get(j);
 
                 EAlignX alignX = getAlignX(rcFrom, rcTo);
                 EAlignY alignY = getAlignY(rcFrom, rcTo);
-                Point minFrom;
-                Point minTo;
+                double minFromX, minFromY;
+                double minToX  , minToY;
                 switch (alignX) {
                 case left:
                     switch (alignY) {
                     case top:
-                        minFrom = new Point(rcFrom.x, rcFrom.y);
-                        minTo   = new Point(rcTo.x + rcTo.width, rcTo.y + rcTo.height);
+                        minFromX = rcFrom.x;
+                        minFromY = rcFrom.y;
+                        minToX   = rcTo.x + rcTo.width;
+                        minToY   = rcTo.y + rcTo.height;
                         break;
                     case center:
-                        minFrom = new Point(rcFrom.x           , Math.min(rcFrom.y, rcTo.y + rcTo.height));
-                        minTo   = new Point(rcTo.x + rcTo.width, minFrom.y);
+                        minFromX = rcFrom.x;
+                        minFromY = Math.min(rcFrom.y, rcTo.y + rcTo.height);
+                        minToX   = rcTo.x + rcTo.width;
+                        minToY   = minFromY;
                         break;
                     case bottom:
-                        minFrom = new Point(rcFrom.x, rcFrom.y + rcFrom.height);
-                        minTo   = new Point(rcTo.x + rcTo.width, rcTo.y);
+                        minFromX = rcFrom.x;
+                        minFromY = rcFrom.y + rcFrom.height;
+                        minToX   = rcTo.x + rcTo.width;
+                        minToY   = rcTo.y;
                         break;
                     default:
                         throw new IllegalArgumentException();
@@ -235,15 +281,19 @@ public class BindToNeighborTab extends CustomTab<BindToNeighborTabParams> {
                 case center:
                     switch (alignY) {
                     case top:
-                        minFrom = new Point(Math.min(rcFrom.x, rcTo.x), rcFrom.y);
-                        minTo   = new Point(minFrom.x, rcTo.y + rcTo.height);
+                        minFromX = Math.min(rcFrom.x, rcTo.x);
+                        minFromY = rcFrom.y;
+                        minToX   = minFromX;
+                        minToY   = rcTo.y + rcTo.height;
                         break;
                     case center:
                         logger.warn("...........");
                         continue;
                     case bottom:
-                        minFrom = new Point(Math.min(rcFrom.x, rcTo.x), rcFrom.y + rcFrom.height);
-                        minTo   = new Point(minFrom.x, rcTo.y);
+                        minFromX = Math.min(rcFrom.x, rcTo.x);
+                        minFromY = rcFrom.y + rcFrom.height;
+                        minToX   = minFromX;
+                        minToY   = rcTo.y;
                         break;
                     default:
                         throw new IllegalArgumentException();
@@ -253,16 +303,22 @@ public class BindToNeighborTab extends CustomTab<BindToNeighborTabParams> {
                 case right:
                     switch (alignY) {
                     case top:
-                        minFrom = new Point(rcFrom.x + rcFrom.width, rcFrom.y);
-                        minTo   = new Point(rcTo.x, rcTo.y + rcTo.height);
+                        minFromX = rcFrom.x + rcFrom.width;
+                        minFromY = rcFrom.y;
+                        minToX   = rcTo.x;
+                        minToY   = rcTo.y + rcTo.height;
                         break;
                     case center:
-                        minFrom = new Point(rcFrom.x + rcFrom.width, Math.min(rcFrom.y, rcTo.y + rcTo.height));
-                        minTo   = new Point(rcTo.x, minFrom.y);
+                        minFromX = rcFrom.x + rcFrom.width;
+                        minFromY = Math.min(rcFrom.y, rcTo.y + rcTo.height);
+                        minToX   = rcTo.x;
+                        minToY   = minFromY;
                         break;
                     case bottom:
-                        minFrom = new Point(rcFrom.x + rcFrom.width, rcFrom.y + rcTo.height);
-                        minTo   = new Point(rcTo.x, rcTo.y);
+                        minFromX = rcFrom.x + rcFrom.width;
+                        minFromY = rcFrom.y + rcTo.height;
+                        minToX   = rcTo.x;
+                        minToY   = rcTo.y;
                         break;
                     default:
                         throw new IllegalArgumentException();
@@ -273,21 +329,15 @@ public class BindToNeighborTab extends CustomTab<BindToNeighborTabParams> {
                     throw new IllegalArgumentException();
                 }
 
-                double diffX = Math.abs(minFrom.x - minTo.x);
-                double diffY = Math.abs(minFrom.y - minTo.y);
+                double diffX = Math.abs(minFromX - minToX);
+                double diffY = Math.abs(minFromY - minToY);
                 double diff = Math.sqrt(diffX * diffX + diffY * diffY);
 
-                if (diff <= params.bindSize) {
-                    BindItem item = new BindItem();
-                    item.to = j;
-                    item.alignX = alignX;
-                    item.alignY = alignY;
-                    item.minFrom = minFrom;
-                    item.minTo = minTo;
-                    to.add(item);
-                }
+                if (diff <= params.bindSize)
+                    res.add(j, alignX, alignY, minFromX, minFromY, minToX, minToY);
             }
         }
+        res.start[singles.size()] = res.count;
         return res;
     }
 
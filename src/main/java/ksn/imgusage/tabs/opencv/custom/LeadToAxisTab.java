@@ -5,6 +5,7 @@ import java.awt.Component;
 import java.awt.Container;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
@@ -20,6 +21,7 @@ import org.slf4j.Logger;
 
 import ksn.imgusage.model.SliderIntModel;
 import ksn.imgusage.type.dto.opencv.custom.LeadToAxisTabParams;
+import ksn.imgusage.utils.GeomHelper;
 import ksn.imgusage.utils.ImgHelper;
 import ksn.imgusage.utils.OpenCvHelper;
 
@@ -33,6 +35,12 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
     public  static final int ANGLE_LEAD_MIN = -180;
     public  static final int ANGLE_LEAD_MAX = +180;
     private static final int ANGLE_LEAD_MIN_DIFF = 10;
+    /** coarse-to-fine search: angle steps of levels, in degrees */
+    private static final double[] SEARCH_STEPS = { 5, 1, 0.1 };
+    /** coarse-to-fine search: max size of the downscaled image */
+    private static final int SEARCH_MAX_SIZE = 512;
+    /** search around the estimated angle: +/- degrees */
+    private static final double SEED_RANGE = 3;
 
     private static final Scalar BLACK = new Scalar(0, 0, 0);
     private static final Scalar RED   = new Scalar(0, 0, 255);
@@ -83,6 +91,11 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
     @Override
     public String getDescription() { return TAB_DESCRIPTION; }
 
+    @Override
+    protected String makeStageKey() {
+        return null; // iterative filter: the result is refined by the next steps
+    }
+
     @Override
     protected void resetImage() {
         allIterations.clear();
@@ -110,12 +123,107 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
         imageMat.copyTo(matStarted.colRange(offsetX, offsetX + imageMat.width())
                                   .rowRange(offsetY, offsetY + imageMat.height()));
 
-        SwingUtilities.invokeLater(() -> this.nextIteration(matStarted, params.angleRangeMin));
+        Mat matSmall = (params.coarseToFine || params.estimateSeed) ? downscale(matStarted) : null;
+        List<Double> seeds = params.estimateSeed ? estimateSeeds(matSmall) : new ArrayList<>();
+        if (!seeds.isEmpty()) {
+            // skip the coarse level: only around the estimate
+            List<Double> angles = new ArrayList<>();
+            for (double seed : seeds)
+                addAngles(angles, Math.max(params.angleRangeMin, seed - SEED_RANGE), Math.min(params.angleRangeMax, seed + SEED_RANGE), SEARCH_STEPS[1]);
+            invokeNextStep(() -> this.nextLevel(matStarted, matSmall, 1, angles));
+        } else if (params.coarseToFine) {
+            List<Double> angles = new ArrayList<>();
+            addAngles(angles, params.angleRangeMin, params.angleRangeMax, SEARCH_STEPS[0]);
+            invokeNextStep(() -> this.nextLevel(matStarted, matSmall, 0, angles));
+        } else {
+            invokeNextStep(() -> this.nextIteration(matStarted, params.angleRangeMin));
+        }
+    }
+
+    private static void addAngles(List<Double> angles, double rangeMin, double rangeMax, double step) {
+        for (int i = 0; rangeMin + i * step <= rangeMax + step / 100; ++i)
+            angles.add(Math.round((rangeMin + i * step) * 100) / 100.0);
+    }
+
+    /** Closed-form estimate of the skew: the angle of a side of the min area rect of the largest contour.
+     * <br> The rect has no orientation, so each its side gives the candidate (modulo 90 degrees); the best one is selected by search.
+     * @return candidate angles in the search range; empty - no estimate */
+    private List<Double> estimateSeeds(Mat mat) {
+        List<MatOfPoint> contours = new ArrayList<>();
+        Imgproc.findContours(
+            OpenCvHelper.toGray(mat),
+            contours,
+            new Mat(),
+            Imgproc.RETR_EXTERNAL,
+            Imgproc.CHAIN_APPROX_SIMPLE);
+
+        List<Double> seeds = new ArrayList<>();
+        MatOfPoint largest = contours.stream()
+            .max(Comparator.comparingDouble(contour -> Math.abs(Imgproc.contourArea(contour))))
+            .orElse(null);
+        if (largest == null)
+            return seeds;
+
+        RotatedRect rc = Imgproc.minAreaRect(new MatOfPoint2f(largest.toArray()));
+        Point[] corners = new Point[4];
+        rc.points(corners);
+        // rotation by the angle of the side makes it horizontal (see Imgproc.getRotationMatrix2D: positive angle - counter-clockwise)
+        double side = Math.toDegrees(Math.atan2(corners[1].y - corners[0].y, corners[1].x - corners[0].x));
+        for (double angle = side - 360; angle <= side + 360; angle += 90)
+            if ((angle >= params.angleRangeMin - SEED_RANGE) && (angle <= params.angleRangeMax + SEED_RANGE))
+                seeds.add(angle);
+        logger.trace("estimateSeeds: minAreaRect={}, seeds={}", rc, seeds);
+        return seeds;
+    }
+
+    private static Mat downscale(Mat matStarted) {
+        double scale = Math.min(1, SEARCH_MAX_SIZE / (double)matStarted.width());
+        if (scale >= 1)
+            return matStarted;
+        Mat small = new Mat();
+        Imgproc.resize(matStarted, small, new Size(), scale, scale, Imgproc.INTER_AREA); // averages the pixels: a thin line is dimmed, but stays nonzero for findContours
+        return small;
+    }
+
+    /** Coarse-to-fine search: one level - the angles with the step of the level, in parallel, on the downscaled image.
+     * <br> The next level searches around the best angle of this one; the last level gives the result, rotated at full resolution. */
+    private void nextLevel(Mat matStarted, Mat matSmall, int level, List<Double> angles) {
+        if (getSourceMat() == null)
+            return;
+        try {
+            nextLevel1(matStarted, matSmall, level, angles);
+        } catch (Exception ex) {
+            logger.error("nextLevel: {}", ex);
+            tabManager.onError(ex, this, null);
+        }
+    }
+    private void nextLevel1(Mat matStarted, Mat matSmall, int level, List<Double> angles) {
+        double step = SEARCH_STEPS[level];
+        Size sizeSrc = getSourceMat().size();
+        double scale = matSmall.width() / (double)matStarted.width();
+        double originalMaxArea = sizeSrc.width * sizeSrc.height * scale * scale;
+        List<IterationResult> results = angles.parallelStream()
+            .map(angle -> rotateAndFindMaxContourArea(matSmall, angle, RED, originalMaxArea))
+            .collect(Collectors.toList());
+
+        IterationResult best = findBestIteration(results);
+        logger.trace("nextLevel: level={}, step={}, angles={}, best={}", level, step, angles.size(), best);
+        if ((best == null) || (level == SEARCH_STEPS.length - 1)) {
+            bestIteration = best;
+            showFinalResult(matStarted);
+            return;
+        }
+
+        if (params.showProgress)
+            applyImage(best.mat);
+        List<Double> nextAngles = new ArrayList<>();
+        addAngles(nextAngles, Math.max(params.angleRangeMin, best.angle - step), Math.min(params.angleRangeMax, best.angle + step), SEARCH_STEPS[level + 1]);
+        invokeNextStep(() -> this.nextLevel(matStarted, matSmall, level + 1, nextAngles));
     }
 
     private void applyImage(Mat mat) {
         imageMat = mat;
-        image = ImgHelper.toBufferedImage(imageMat);
+        image = null; // built at the first request
         invalidate(false);
     }
 
@@ -131,11 +239,13 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
     }
     private void nextIteration1(Mat matStarted, double angle) {
         if (nextIteration2(matStarted, angle)) {
-            // show intermediate result
-            IterationResult last = allIterations.get(allIterations.size() - 1);
-            applyImage(last.mat);
+            if (params.showProgress) {
+                // show intermediate result
+                IterationResult last = allIterations.get(allIterations.size() - 1);
+                applyImage(last.mat);
+            }
 
-            SwingUtilities.invokeLater(() -> this.nextIteration(matStarted, angle + 1.0));
+            invokeNextStep(() -> this.nextIteration(matStarted, angle + 1.0));
         } else {
             // show final result
             showFinalResult(matStarted);
@@ -146,35 +256,53 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
         if (bestIteration == null) {
             // nothing found (
             applyImage(getSourceMat());
-            showResultAngle.accept(":(");
+            if (showResultAngle != null)
+                showResultAngle.accept(":(");
 
             return;
         }
 
-        Mat imgNoBorder   = makeBestImage(matStarted, null);
-        Mat imgWithBorder = makeBestImage(matStarted, GREEN);
+        // rotate at full resolution once; the border is drawn on a copy
+        IterationResult best = rotateAndFindMaxContourArea(matStarted, bestIteration.angle, null);
+        Rect rcOut = best.rcOut;
+        if (rcOut == null) {
+            // the contour found on the downscaled image (coarse-to-fine) is under the area limit at full resolution
+            double scale = bestIteration.mat.width() / (double)best.mat.width();
+            Rect rc = bestIteration.rcOut;
+            rcOut = GeomHelper.intersect(new Rect(0, 0, best.mat.width(), best.mat.height()),
+                                         new Rect((int)(rc.x / scale), (int)(rc.y / scale), (int)Math.ceil(rc.width / scale), (int)Math.ceil(rc.height / scale)));
+        }
+        Mat matWithBorder = best.mat.clone();
+        Imgproc.rectangle(matWithBorder,
+            new Point(rcOut.x, rcOut.y),
+            new Point(rcOut.x + rcOut.width, rcOut.y + rcOut.height),
+            GREEN,
+            1);
+
+        Mat imgNoBorder   = makeBestImage(best.mat     , rcOut);
+        Mat imgWithBorder = makeBestImage(matWithBorder, rcOut);
         bestImg = ImgHelper.toBufferedImage(imgWithBorder);
         applyImage(imgNoBorder);
 
-        showResultAngle.accept(String.format(Locale.US, "%.2f", bestIteration.angle));
+        if (showResultAngle != null)
+            showResultAngle.accept(String.format(Locale.US, "%.2f", bestIteration.angle));
     }
 
-    private Mat makeBestImage(Mat matStarted, Scalar regionRectColor) {
-        // show best result
-        IterationResult best = rotateAndFindMaxContourArea(matStarted, bestIteration.angle, regionRectColor); // optional; another rectangle color
-
+    private Mat makeBestImage(Mat rotated, Rect rcOut) {
         Size sizeSrc = getSourceMat().size();
-        Mat dst = new Mat(sizeSrc, best.mat.type(), BLACK);
-        Rect roi = best.rcOut;
-        roi.width++; roi.height++; // add color border :(
+        Mat dst = new Mat(sizeSrc, rotated.type(), BLACK);
+        Rect roi = new Rect(rcOut.x, // add color border :(
+                            rcOut.y,
+                            Math.min(rcOut.width  + 1, rotated.width()  - rcOut.x),
+                            Math.min(rcOut.height + 1, rotated.height() - rcOut.y));
         if (!params.keepSourceSize) {
             if (params.cutBorders)
-                new Mat(best.mat, roi).copyTo(dst);
+                new Mat(rotated, roi).copyTo(dst);
             else
-                dst = best.mat;
+                dst = rotated;
         } else {
             // restore original size
-            if ((sizeSrc.width < best.rcOut.width) || (sizeSrc.height < best.rcOut.height)) {
+            if ((sizeSrc.width < roi.width) || (sizeSrc.height < roi.height)) {
 
                 logger.trace("src=[{}x{}]", sizeSrc.width, sizeSrc.height);
                 logger.trace("roi=[{}x{}]", roi.width, roi.height);
@@ -187,7 +315,7 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
                 logger.trace("roiZoom=[{}x{}]", newRoiWidth, newRoiHeight);
 
                 Mat resized = new Mat();
-                Imgproc.resize(new Mat(best.mat, roi), resized, new Size(newRoiWidth, newRoiHeight));
+                Imgproc.resize(new Mat(rotated, roi), resized, new Size(newRoiWidth, newRoiHeight));
                 logger.trace("resizedMat=[{}x{}]", resized.width(), resized.height());
 
                 int offsetX = ((int)sizeSrc.width  - newRoiWidth ) / 2;
@@ -198,8 +326,8 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
             } else {
                 int offsetX = (dst.width()  - roi.width ) / 2;
                 int offsetY = (dst.height() - roi.height) / 2;
-                new Mat(best.mat, roi).copyTo(dst.colRange(offsetX, offsetX + roi.width)
-                                                 .rowRange(offsetY, offsetY + roi.height));
+                new Mat(rotated, roi).copyTo(dst.colRange(offsetX, offsetX + roi.width)
+                                                .rowRange(offsetY, offsetY + roi.height));
             }
         }
         return dst;
@@ -207,7 +335,7 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
 
     private boolean nextIteration2(Mat matStarted, double angle) {
         if (angle > params.angleRangeMax) {
-            findBestIteration();
+            bestIteration = findBestIteration(allIterations);
             return false; // stop iterations
         } else {
             IterationResult resIter = rotateAndFindMaxContourArea(matStarted, angle, RED);
@@ -217,10 +345,11 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
         }
     }
 
-    private void findBestIteration() {
-        logger.trace("findBestIteration: total.size={}", allIterations.size());
+    /** @return null - nothing found */
+    private IterationResult findBestIteration(List<IterationResult> iterations) {
+        logger.trace("findBestIteration: total.size={}", iterations.size());
 
-        List<IterationResult> valid = allIterations.stream()
+        List<IterationResult> valid = iterations.stream()
                 .filter(item -> item.area > 0)
                 .filter(item -> item.rcOut != null)
                 .filter(item ->
@@ -261,15 +390,22 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
 
         if (best.isEmpty()) {
             logger.warn("findBestIteration: Nothing found (");
-            return;
+            return null;
         }
 
         // get ONE best result
-        bestIteration = best.get(0);
-        logger.trace("findBestIteration: finded {}", bestIteration);
+        IterationResult bestItem = best.get(0);
+        logger.trace("findBestIteration: finded {}", bestItem);
+        return bestItem;
     }
 
     private IterationResult rotateAndFindMaxContourArea(Mat matStarted, double angle, Scalar rcColor) {
+        Size sizeSrc = getSourceMat().size();
+        return rotateAndFindMaxContourArea(matStarted, angle, rcColor, sizeSrc.width * sizeSrc.height);
+    }
+
+    /** thread safe: can be called in parallel */
+    private IterationResult rotateAndFindMaxContourArea(Mat matStarted, double angle, Scalar rcColor, double originalMaxArea) {
         Point center = new Point(matStarted.width() / 2.0, matStarted.height() / 2.0);
         Mat rotateMatrix = Imgproc.getRotationMatrix2D(center, angle, 1);
 
@@ -281,8 +417,7 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
                 new org.opencv.core.Size(0, 0),
                 Imgproc.INTER_LINEAR);
 
-        Size sizeSrc = getSourceMat().size();
-        IterationResult res = findMaxContourArea(angle, dst, sizeSrc.width * sizeSrc.height, logger);
+        IterationResult res = findMaxContourArea(angle, dst, originalMaxArea, logger);
         if ((res.rcOut != null) && (rcColor != null)) {
             Imgproc.rectangle(res.mat,
                 new Point(res.rcOut.x, res.rcOut.y),
@@ -380,6 +515,27 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
                 });
         boxLeadToHorizont.add(cbKeepSize);
         boxLeadToHorizont.add(cbCut[0]);
+        boxLeadToHorizont.add(makeCheckBox(
+                () -> params.coarseToFine,
+                v  -> params.coarseToFine = v,
+                "Coarse-to-fine",
+                "params.coarseToFine",
+                "Search in parallel on the downscaled image: 5\u00B0 -> 1\u00B0 -> 0.1\u00B0 steps",
+                null));
+        boxLeadToHorizont.add(makeCheckBox(
+                () -> params.estimateSeed,
+                v  -> params.estimateSeed = v,
+                "Estimate seed",
+                "params.estimateSeed",
+                "Search only around the angle of the min area rect of the largest contour",
+                null));
+        boxLeadToHorizont.add(makeCheckBox(
+                () -> params.showProgress,
+                v  -> params.showProgress = v,
+                "Show progress",
+                "params.showProgress",
+                "Show intermediate results while searching",
+                null));
 
         Box box4AngleRange = Box.createHorizontalBox();
         box4AngleRange.setBorder(BorderFactory.createTitledBorder("Range angles"));
@@ -394,7 +550,7 @@ public class LeadToAxisTab extends CustomTab<LeadToAxisTabParams> {
 
         List<Consumer<String>> setterTextList = new ArrayList<>(1);
         Container cntrlToShowResult = makeEditBox(setterTextList::add, null, "Angle found", "Result", "Best turning angle");
-        showResultAngle = text -> setterTextList.get(0).accept(text == null ? "" : text);
+        showResultAngle = text -> SwingUtilities.invokeLater(() -> setterTextList.get(0).accept(text == null ? "" : text));
 
         addChangeListener("modelLimitAreaDiffInPercent", modelLimitAreaDiffInPercent, v -> params.limitAreaDiffInPercent = v);
         addChangeListener("modelAngleRangeMin", modelAngleRangeMin, v -> params.angleRangeMin = v, () -> {
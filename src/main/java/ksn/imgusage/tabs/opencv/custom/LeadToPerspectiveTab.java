@@ -3,13 +3,13 @@ package ksn.imgusage.tabs.opencv.custom;
 import java.awt.Component;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.JButton;
-import javax.swing.SwingUtilities;
 
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
@@ -31,6 +31,15 @@ public class LeadToPerspectiveTab extends CustomTab<LeadToPerspectiveTabParams>
     private static final Scalar RED    = new Scalar(0x00, 0x00, 0xFF);
     private static final Scalar GREEN  = new Scalar(0x00, 0xFF, 0x00);
 
+    /** quad detection: epsilons of approxPolyDP, in parts of the contour perimeter */
+    private static final double[] APPROX_EPSILONS = { 0.01, 0.02, 0.03, 0.05 };
+    /** corner optimizer: max size of the downscaled image of each level */
+    private static final int[] OPTIMIZE_SIZES = { 256, 512 };
+    /** corner optimizer: initial step of corner moving, in pixels of the level image */
+    private static final double OPTIMIZE_MAX_STEP = 4;
+    /** corner optimizer: max count of moves on one level */
+    private static final int OPTIMIZE_MAX_MOVES = 200;
+
     /** Contour info */
     private static class IterationResult {
         final Mat mat;
@@ -57,6 +66,11 @@ public class LeadToPerspectiveTab extends CustomTab<LeadToPerspectiveTabParams>
     private final Point offsetLT = new Point();
     private final Point offsetLB = new Point();
 
+    @Override
+    protected String makeStageKey() {
+        return null; // iterative filter: the result is refined by the next steps
+    }
+
     @Override
     protected void resetImage() {
         isBestFound = false;
@@ -115,10 +129,210 @@ public class LeadToPerspectiveTab extends CustomTab<LeadToPerspectiveTabParams>
         logger.trace("applyOpencvFilter: iterationResult: rc={}, area={}", started.rcOut, started.area);
         imageMat = started.mat;
 
-        if (started.rcOut == null)
+        if (started.rcOut == null) {
             tabManager.onError(new Exception("Not found started contour"), this, null);
-        else
-            SwingUtilities.invokeLater(this::nextIteration);
+        } else if (params.detectQuad) {
+            Mat matStarted = imageMat;
+            invokeNextStep(() -> this.detectQuad(matStarted));
+        } else {
+            invokeNextStep(this::nextIteration);
+        }
+    }
+
+    /** Direct path: largest contour -> approxPolyDP -> 4 corners -> one perspective transform.
+     * <br> If the contour is not a quad, its extreme points are the start of the corner optimizer. */
+    private void detectQuad(Mat matStarted) {
+        if (getSourceMat() == null)
+            return;
+
+        try {
+            Size size = matStarted.size();
+            MatOfPoint contour = findLargestContour(matStarted, size.width * size.height);
+            Point[] quad = (contour == null) ? null : approxQuad(contour);
+            if (quad != null) {
+                logger.trace("detectQuad: quad={}", (Object)quad);
+                showQuad(matStarted, quad);
+                return;
+            }
+
+            logger.trace("detectQuad: not a quad, optimize corners");
+            Point[] corners = (contour == null)
+                ? orderCorners(new Point[] { started.rcOut.tl(), new Point(started.rcOut.x + started.rcOut.width, started.rcOut.y),
+                                             started.rcOut.br(), new Point(started.rcOut.x, started.rcOut.y + started.rcOut.height) })
+                : orderCorners(contour.toArray());
+            invokeNextStep(() -> this.optimizeCorners(matStarted, corners, 0));
+        } catch (Exception ex) {
+            logger.error("detectQuad: {}", ex);
+            tabManager.onError(ex, this, null);
+        }
+    }
+
+    private void showQuad(Mat matStarted, Point[] quad) {
+        Mat warped = warpQuad(matStarted, quad);
+        Size size = matStarted.size();
+        last = findMaxContourArea(warped, size.width * size.height, logger);
+        isBestFound = true;
+        applyImage(warped);
+    }
+
+    private static MatOfPoint findLargestContour(Mat imageSrc, double originalMaxArea) {
+        List<MatOfPoint> contours = new ArrayList<>();
+        Imgproc.findContours(
+            OpenCvHelper.toGray(imageSrc),
+            contours,
+            new Mat(),
+            Imgproc.RETR_EXTERNAL,
+            Imgproc.CHAIN_APPROX_SIMPLE);
+
+        double areaLimit = originalMaxArea / 3.5; // as in findMaxContourArea
+        MatOfPoint largest = null;
+        double largestArea = areaLimit;
+        for (MatOfPoint contour : contours) {
+            double area = Math.abs(Imgproc.contourArea(contour));
+            if (area >= largestArea) {
+                largest = contour;
+                largestArea = area;
+            }
+        }
+        return largest;
+    }
+
+    /** @return corners of the convex quad, see {@link #orderCorners}; null - the contour is not a quad */
+    private static Point[] approxQuad(MatOfPoint contour) {
+        MatOfPoint2f curve = new MatOfPoint2f(contour.toArray());
+        double perimeter = Imgproc.arcLength(curve, true);
+        for (double epsilon : APPROX_EPSILONS) {
+            MatOfPoint2f approx = new MatOfPoint2f();
+            Imgproc.approxPolyDP(curve, approx, epsilon * perimeter, true);
+            if ((approx.rows() == 4) && Imgproc.isContourConvex(new MatOfPoint(approx.toArray())))
+                return orderCorners(approx.toArray());
+        }
+        return null;
+    }
+
+    /** extreme points: left-top, right-top, right-bottom, left-bottom */
+    private static Point[] orderCorners(Point[] points) {
+        Point lt = points[0], rt = points[0], rb = points[0], lb = points[0];
+        for (Point p : points) {
+            if (p.x + p.y < lt.x + lt.y) lt = p;
+            if (p.x - p.y > rt.x - rt.y) rt = p;
+            if (p.x + p.y > rb.x + rb.y) rb = p;
+            if (p.x - p.y < lb.x - lb.y) lb = p;
+        }
+        return new Point[] { lt, rt, rb, lb };
+    }
+
+    /** perspective transform of the quad to the rectangle (with the max sides of the quad, in the center of the quad) */
+    private static Mat warpQuad(Mat imageSrc, Point[] quad) {
+        Size size = imageSrc.size();
+        double w = Math.max(distance(quad[0], quad[1]), distance(quad[3], quad[2]));
+        double h = Math.max(distance(quad[0], quad[3]), distance(quad[1], quad[2]));
+        double zoom = Math.min(1, Math.min(size.width / w, size.height / h));
+        w *= zoom;
+        h *= zoom;
+        double cx = (quad[0].x + quad[1].x + quad[2].x + quad[3].x) / 4;
+        double cy = (quad[0].y + quad[1].y + quad[2].y + quad[3].y) / 4;
+        double x = Math.max(0, Math.min(size.width  - w, cx - w / 2));
+        double y = Math.max(0, Math.min(size.height - h, cy - h / 2));
+
+        Mat transformMatrix = Imgproc.getPerspectiveTransform(
+            new MatOfPoint2f(quad),
+            new MatOfPoint2f(new Point(x    , y    ),
+                             new Point(x + w, y    ),
+                             new Point(x + w, y + h),
+                             new Point(x    , y + h)));
+        Mat dst = new Mat();
+        Imgproc.warpPerspective(
+            imageSrc,
+            dst,
+            transformMatrix,
+            size,
+            Imgproc.INTER_NEAREST);
+        return dst;
+    }
+
+    private static double distance(Point p1, Point p2) {
+        return Math.hypot(p1.x - p2.x, p1.y - p2.y);
+    }
+
+    /** corner candidate of the optimizer */
+    private static class QuadScore {
+        final Point[] quad;
+        final double score;
+        QuadScore(Point[] quad, double score) {
+            this.quad = quad;
+            this.score = score;
+        }
+    }
+
+    /** Local optimizer of the corners, for hard cases (the contour is not a quad).
+     * <br> Levels are the downscaled images of growing size; on each level every corner is moved to 8 directions,
+     *      all the candidates are evaluated in parallel and the best one is taken while it improves the score; then the step is halved.
+     * <br> The score is the rectangularity of the largest contour after the transform: its area / area of its bounding rect. */
+    private void optimizeCorners(Mat matStarted, Point[] corners, int level) {
+        if (getSourceMat() == null)
+            return;
+
+        try {
+            double scale = Math.min(1, OPTIMIZE_SIZES[level] / (double)Math.max(matStarted.width(), matStarted.height()));
+            Mat small = new Mat();
+            Imgproc.resize(matStarted, small, new Size(), scale, scale, Imgproc.INTER_AREA);
+
+            Point[] start = scaleCorners(corners, scale);
+            QuadScore best = new QuadScore(start, rectangularity(small, start));
+            double step = OPTIMIZE_MAX_STEP;
+            int moves = 0;
+            while ((step >= 1) && (moves < OPTIMIZE_MAX_MOVES)) {
+                List<Point[]> candidates = new ArrayList<>();
+                for (int i = 0; i < 4; ++i)
+                    for (int dx = -1; dx <= 1; ++dx)
+                        for (int dy = -1; dy <= 1; ++dy) {
+                            if ((dx == 0) && (dy == 0))
+                                continue;
+                            Point[] quad = best.quad.clone();
+                            quad[i] = new Point(quad[i].x + dx * step, quad[i].y + dy * step);
+                            candidates.add(quad);
+                        }
+                QuadScore bestCandidate = candidates.parallelStream()
+                    .map(quad -> new QuadScore(quad, rectangularity(small, quad)))
+                    .max(Comparator.comparingDouble(c -> c.score))
+                    .orElse(null);
+                if ((bestCandidate != null) && (bestCandidate.score > best.score)) {
+                    best = bestCandidate;
+                    ++moves;
+                } else {
+                    step /= 2;
+                }
+            }
+            logger.trace("optimizeCorners: level={}, scale={}, moves={}, score={}", level, scale, moves, best.score);
+
+            Point[] result = scaleCorners(best.quad, 1 / scale);
+            if ((level + 1 < OPTIMIZE_SIZES.length) && (scale < 1))
+                invokeNextStep(() -> this.optimizeCorners(matStarted, result, level + 1));
+            else
+                showQuad(matStarted, result);
+        } catch (Exception ex) {
+            logger.error("optimizeCorners: {}", ex);
+            tabManager.onError(ex, this, null);
+        }
+    }
+
+    private static Point[] scaleCorners(Point[] corners, double scale) {
+        Point[] res = new Point[corners.length];
+        for (int i = 0; i < corners.length; ++i)
+            res[i] = new Point(corners[i].x * scale, corners[i].y * scale);
+        return res;
+    }
+
+    /** thread safe: can be called in parallel */
+    private static double rectangularity(Mat imageSrc, Point[] quad) {
+        Mat warped = warpQuad(imageSrc, quad);
+        Size size = warped.size();
+        MatOfPoint contour = findLargestContour(warped, size.width * size.height);
+        if (contour == null)
+            return 0;
+        Rect rc = Imgproc.boundingRect(contour);
+        return Math.abs(Imgproc.contourArea(contour)) / ((double)rc.width * rc.height);
     }
 
     private void nextIteration() {
@@ -135,7 +349,7 @@ public class LeadToPerspectiveTab extends CustomTab<LeadToPerspectiveTabParams>
 
     private void applyImage(Mat mat) {
         imageMat = mat;
-        image = ImgHelper.toBufferedImage(imageMat);
+        image = null; // built at the first request
         invalidate(false);
     }
 
@@ -173,7 +387,7 @@ public class LeadToPerspectiveTab extends CustomTab<LeadToPerspectiveTabParams>
         }
 
         if (repeat)
-            SwingUtilities.invokeLater(() -> this.nextIterationRightTopX(offsetX + 1));
+            invokeNextStep(() -> this.nextIterationRightTopX(offsetX + 1));
 //        else
 //            SwingUtilities.invokeLater(() -> this.nextIterationRightTopY(-1));
 //            SwingUtilities.invokeLater(() -> this.nextIterationRightBottomX(+1));
@@ -214,9 +428,9 @@ public class LeadToPerspectiveTab extends CustomTab<LeadToPerspectiveTabParams>
         }
 
         if (repeat)
-            SwingUtilities.invokeLater(() -> this.nextIterationRightTopY(offsetY - 1));
+            invokeNextStep(() -> this.nextIterationRightTopY(offsetY - 1));
         else
-            SwingUtilities.invokeLater(() -> this.nextIterationRightBottomX(+1));
+            invokeNextStep(() -> this.nextIterationRightBottomX(+1));
     }
 
     private void nextIterationRightBottomX(int offsetX) {
@@ -335,6 +549,13 @@ public class LeadToPerspectiveTab extends CustomTab<LeadToPerspectiveTabParams>
         JButton btnRepeat = new JButton("Repeat...");
         btnRepeat.addActionListener(ev -> invalidateAsync());
         box4Options.add(btnRepeat);
+        box4Options.add(makeCheckBox(
+                () -> params.detectQuad,
+                v  -> params.detectQuad = v,
+                "Detect quad",
+                "params.detectQuad",
+                "Corners of the largest contour (approxPolyDP); if it is not a quad - optimize the corners on the downscaled image",
+                null));
 
         return box4Options;
     }
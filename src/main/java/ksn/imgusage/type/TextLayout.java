@@ -0,0 +1,30 @@
+package ksn.imgusage.type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Text layout found by {@link ksn.imgusage.tabs.opencv.MserTab}: lines of words of symbols, in image coordinates */
+public class TextLayout {
+
+    public static class Symbol {
+        public Rect position;
+        /** inner regions of the symbol (holes of letters) */
+        public List<Rect> inners = new ArrayList<>();
+    }
+
+    public static class Word {
+        public Rect position;
+        public List<Symbol> symbols = new ArrayList<>();
+    }
+
+    public static class Line {
+        public Rect position;
+        public List<Word> words = new ArrayList<>();
+    }
+
+    /** source image (file name in batch mode); can be null */
+    public String image;
+    public Size imageSize;
+    public List<Line> lines = new ArrayList<>();
+
+}
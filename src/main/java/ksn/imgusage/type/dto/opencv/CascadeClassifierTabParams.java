@@ -1,18 +1,26 @@
 package ksn.imgusage.type.dto.opencv;
 
 import ksn.imgusage.tabs.ITabParams;
+import ksn.imgusage.tabs.opencv.CascadeClassifierPool;
 import ksn.imgusage.tabs.opencv.CascadeClassifierTab;
-import ksn.imgusage.tabs.opencv.CascadeClassifierTab.EHaarcascade;
 
 /** Init parameters for {@link CascadeClassifierTab} */
 public class CascadeClassifierTabParams implements ITabParams {
 
-    public EHaarcascade first  = EHaarcascade.frontalface_alt;
-    public EHaarcascade second = EHaarcascade.eye_tree_eyeglasses;
+    /** model name, see {@link CascadeClassifierPool#getModels()} */
+    public String first  = "haarcascade_frontalface_alt";
+    /** model name, or null - without the second stage */
+    public String second = "haarcascade_eye_tree_eyeglasses";
+
+    /** for very large frames: split the scale pyramid of the first model to bands, detected in parallel */
+    public boolean shardPyramid;
+
+    /** for video: the full detection of the first model every N frames, between them - search around the previous detections only; 0 - off */
+    public int trackInterval;
 
     @Override
     public String toString() {
-        return "{ first=" + first + ", second=" + second + " }";
+        return "{ first=" + first + ", second=" + second + ", shardPyramid=" + shardPyramid + ", trackInterval=" + trackInterval + " }";
     }
 
 }
@@ -37,6 +37,9 @@ public class MserTabParams implements ITabParams {
     /** the number of characters stuck together */
     public int stuckSymbols = 1;
 
+    /** Detect regions in overlapping tiles, in parallel (for large images); the regions are in another order, so the result can differ from untiled one */
+    public boolean tiled;
+
     /** Show on source */
     public boolean showOnSource = true;
     /** Show inner contours */
@@ -68,7 +71,7 @@ public class MserTabParams implements ITabParams {
     public String toString() {
         return String.format(Locale.US,
             "{ delta=%d, maxVariation=%.2f, minDiversity=%.2f, maxEvolution=%d, areaThreshold=%.2f, minMargin=%.2f, edgeBlurSize=%d"
-            + ", minSymbol=%s, maxSymbol=%s, minLineHeight=%s, stuckSymbols=%d"
+            + ", minSymbol=%s, maxSymbol=%s, minLineHeight=%s, stuckSymbols=%d, tiled=%b"
             + ", wordWidthCoef=%.2f, lineWidthCoef=%.2f"
             + ", mergeRegionsVertivally=%b, mergeRegionsHorizontally=%b, fitSymbolHeight=%b"
             + ", showOnSource=%b, invert=%b, showInner=%b, markChars=%b, markWords=%b, markLines=%b }",
@@ -83,6 +86,7 @@ public class MserTabParams implements ITabParams {
             maxSymbol,
             minLineHeight,
             stuckSymbols,
+            tiled,
             wordWidthCoef, lineWidthCoef,
             mergeRegionsVertically, mergeRegionsHorizontally,
             fitSymbolHeight,
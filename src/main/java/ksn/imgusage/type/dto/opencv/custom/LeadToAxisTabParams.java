@@ -16,6 +16,14 @@ public class LeadToAxisTabParams implements ITabParams {
     public int angleRangeMin = -60;
     public int angleRangeMax = +60;
 
+    /** search mode: coarse-to-fine, in parallel, on the downscaled image (else - sequential, 1 degree step, full resolution) */
+    public boolean coarseToFine;
+    /** search only a few degrees around the closed-form estimate of the angle (min area rect of the largest contour),
+     *  with the refinement levels of coarse-to-fine search; the full range is searched if there is no estimate */
+    public boolean estimateSeed;
+    /** show intermediate results while searching */
+    public boolean showProgress = true;
+
     @Override
     public String toString() {
         return "{"
@@ -25,6 +33,9 @@ public class LeadToAxisTabParams implements ITabParams {
             + ", limitAreaDiffInPercent=" + limitAreaDiffInPercent
             + ", angleRangeMin=" + angleRangeMin
             + ", angleRangeMax=" + angleRangeMax
+            + ", coarseToFine=" + coarseToFine
+            + ", estimateSeed=" + estimateSeed
+            + ", showProgress=" + showProgress
             + " }";
     }
 
@@ -6,8 +6,16 @@ import ksn.imgusage.tabs.opencv.custom.LeadToPerspectiveTab;
 /** Init parameters for {@link LeadToPerspectiveTab} */
 public class LeadToPerspectiveTabParams implements ITabParams {
 
+    /** Find the corners of the largest contour directly (approximation by quad);
+     *  if it is not a quad - optimize the corners on the downscaled image.
+     *  <br> false (default) - old iterative search, one pixel per step; the saved pipelines give the same result */
+    public boolean detectQuad = false;
 
     @Override
-    public String toString() { return "{ ..none.. }"; }
+    public String toString() {
+        return "{"
+            + " detectQuad=" + detectQuad
+            + " }";
+    }
 
 }
@@ -1,5 +1,11 @@
 package ksn.imgusage.utils;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 
@@ -52,4 +58,32 @@ public final class GeomHelper {
         );
     }
 
+    /** intersection over union: 0 - not intersected, 1 - the same */
+    public static double iou(Rect rc1, Rect rc2) {
+        int w = Math.min(rc1.x + rc1.width , rc2.x + rc2.width ) - Math.max(rc1.x, rc2.x);
+        int h = Math.min(rc1.y + rc1.height, rc2.y + rc2.height) - Math.max(rc1.y, rc2.y);
+        if ((w <= 0) || (h <= 0))
+            return 0;
+        double intersection = (double)w * h;
+        return intersection / ((double)rc1.width * rc1.height + (double)rc2.width * rc2.height - intersection);
+    }
+
+    /** Greedy non-maximum suppression: the rects are taken in descending order of scores,
+     *  the rect overlapped with any taken one by more than maxIou (see {@link #iou}) is dropped.
+     * @return kept rects, in descending order of scores */
+    public static List<Rect> nonMaxSuppression(List<Rect> rects, double[] scores, double maxIou) {
+        List<Integer> order = IntStream.range(0, rects.size())
+            .boxed()
+            .sorted(Comparator.comparingDouble((Integer i) -> scores[i]).reversed())
+            .collect(Collectors.toList());
+
+        List<Rect> kept = new ArrayList<>();
+        for (int i : order) {
+            Rect rc = rects.get(i);
+            if (kept.stream().noneMatch(k -> iou(k, rc) > maxIou))
+                kept.add(rc);
+        }
+        return kept;
+    }
+
 }
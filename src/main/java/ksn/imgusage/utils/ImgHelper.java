@@ -5,6 +5,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
 
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
@@ -34,19 +35,62 @@ public final class ImgHelper {
     public static BufferedImage toBufferedImage(Mat from) {
         return OpenCvHelper.toImage(from);
     }
+    /** @param reuse image to fill, if it has the same size and pixel format */
+    public static BufferedImage toBufferedImage(Mat from, BufferedImage reuse) {
+        return OpenCvHelper.toImage(from, reuse);
+    }
 
     public static FastBitmap toFastBitmap(BufferedImage from) {
         return new FastBitmap(from);
     }
+    /** copy Mat buffer directly to FastBitmap (8-bit Mat: gray, BGR or BGRA) */
     public static FastBitmap toFastBitmap(Mat from) {
-        return new FastBitmap(OpenCvHelper.toImage(from));
+        if (from.depth() != CvType.CV_8U)
+            return new FastBitmap(OpenCvHelper.toImage(from));
+
+        FastBitmap to;
+        switch (from.channels()) {
+        case 1:
+            to = new FastBitmap(from.cols(), from.rows(), FastBitmap.ColorSpace.Grayscale);
+            from.get(0, 0, to.getGrayData());
+            return to;
+        case 3:
+            to = new FastBitmap(from.cols(), from.rows(), FastBitmap.ColorSpace.RGB);
+            OpenCvHelper.toIntPixels(from, to.getRGBData());
+            return to;
+        case 4:
+            to = new FastBitmap(from.cols(), from.rows(), FastBitmap.ColorSpace.ARGB);
+            OpenCvHelper.toIntPixels(from, to.getRGBData());
+            return to;
+        default:
+            return new FastBitmap(OpenCvHelper.toImage(from));
+        }
     }
 
     public static Mat toMat(BufferedImage from) {
         return OpenCvHelper.fromImage(from);
     }
+    /** @param reuse Mat to fill (reallocated only if the size or type is changed) */
+    public static Mat toMat(BufferedImage from, Mat reuse) {
+        return OpenCvHelper.fromImage(from, reuse);
+    }
+    /** copy FastBitmap buffer directly to Mat: CV_8UC1, CV_8UC3 (BGR) or CV_8UC4 (BGRA) */
     public static Mat toMat(FastBitmap from) {
-        return OpenCvHelper.fromImage(from.toBufferedImage());
+        Mat to = new Mat();
+        switch (from.getColorSpace()) {
+        case Grayscale:
+            to.create(from.getHeight(), from.getWidth(), CvType.CV_8UC1);
+            to.put(0, 0, from.getGrayData());
+            return to;
+        case RGB:
+            OpenCvHelper.fromIntPixels(from.getRGBData(), from.getWidth(), from.getHeight(), to, Imgproc.COLOR_BGRA2BGR);
+            return to;
+        case ARGB:
+            OpenCvHelper.fromIntPixels(from.getRGBData(), from.getWidth(), from.getHeight(), to, -1);
+            return to;
+        default:
+            return OpenCvHelper.fromImage(from.toBufferedImage());
+        }
     }
 
     public static Mat resize(Mat from, int newWidth, int newHeight) {
@@ -56,7 +100,9 @@ public final class ImgHelper {
     }
     public static FastBitmap resize(FastBitmap from, int newWidth, int newHeight) {
         // return new Catalano.Imaging.Filters.Resize(newWidth, newHeight).apply(from); // ;(
-        return new FastBitmap(resize(from.toBufferedImage(), newWidth, newHeight));
+        Mat dst = new Mat();
+        Imgproc.resize(toMat(from), dst, new Size(newWidth, newHeight), 0,0, Imgproc.INTER_AREA);
+        return toFastBitmap(dst);
     }
     public static BufferedImage resize(BufferedImage from, int newWidth, int newHeight) {
         if (true) {
@@ -1,5 +1,6 @@
 package ksn.imgusage.utils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -8,10 +9,12 @@ import ksn.imgusage.tabs.ITab;
 import ksn.imgusage.tabs.ITabParams;
 import ksn.imgusage.tabs.catalano.*;
 import ksn.imgusage.tabs.catalano.BlurTab;
+import ksn.imgusage.tabs.commons.CommonTab;
 import ksn.imgusage.tabs.commons.ResizeTab;
 import ksn.imgusage.tabs.commons.RoiTab;
 import ksn.imgusage.tabs.opencv.*;
 import ksn.imgusage.tabs.opencv.custom.BindToNeighborTab;
+import ksn.imgusage.tabs.opencv.custom.CustomTab;
 import ksn.imgusage.tabs.opencv.custom.LeadToAxisTab;
 import ksn.imgusage.tabs.opencv.custom.LeadToPerspectiveTab;
 import ksn.imgusage.type.dto.FirstTabParams;
@@ -119,6 +122,16 @@ public final class MapperFilter {
         );
     }
 
+    /** full names of all filter tabs (except {@link FirstTab}), as they are selected in {@link SelectFilterDialog} */
+    public static List<String> getAllTabNames() {
+        List<String> names = new ArrayList<>();
+        getAllCommonTabsDescr  ().forEach(tab -> names.add(        CommonTab.TAB_PREFIX + tab.filterTitle));
+        getAllCatalanoTabsDescr().forEach(tab -> names.add(CatalanoFilterTab.TAB_PREFIX + tab.filterTitle));
+        getAllOpencvTabsDescr  ().forEach(tab -> names.add(  OpencvFilterTab.TAB_PREFIX + tab.filterTitle));
+        getAnotherTabsDescr    ().forEach(tab -> names.add(        CustomTab.TAB_PREFIX + tab.filterTitle));
+        return names;
+    }
+
     /** map filters to tab classes */
     public static Class<? extends ITab<?>> getTabClass(String filterTabFullName) {
         switch (filterTabFullName) {
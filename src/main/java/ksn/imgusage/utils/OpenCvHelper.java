@@ -1,18 +1,26 @@
 package ksn.imgusage.utils;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-import java.awt.image.DataBufferInt;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageIO;
 
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.slf4j.Logger;
@@ -25,166 +33,296 @@ public final class OpenCvHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(OpenCvHelper.class);
 
+    /** BGR(A) order of channels of Mat, as band offsets of interleaved raster */
+    private static final int[][] BGR_BAND_OFFSETS = { null, { 0 }, null, { 2, 1, 0 }, { 2, 1, 0, 3 } };
+
+    /** count of conversions through the PNG codec (slow path) */
+    private static final AtomicLong universalConversions = new AtomicLong();
+
+    /** scratch buffers of the current thread: reused between conversions */
+    private static final ThreadLocal<Mat> scratchMat = ThreadLocal.withInitial(Mat::new);
+    private static final ThreadLocal<ByteBuffer[]> scratchBuffer = ThreadLocal.withInitial(() -> new ByteBuffer[1]);
+
     public static Mat fromImage(BufferedImage image) {
-        Mat mat = fromImageFast(image);
-        if (mat == null)
-            mat = fromImageUniversal(image);
-        return mat;
+        return fromImage(image, null);
+    }
+
+    /** @param dst Mat to fill (its buffer is reallocated only if the size or type is changed); null - new Mat */
+    public static Mat fromImage(BufferedImage image, Mat dst) {
+        if (dst == null)
+            dst = new Mat();
+        fromImageFast(image, dst);
+        return dst;
     }
 
     public static BufferedImage toImage(Mat mat) {
-        BufferedImage img = toImageFast(mat);
+        return toImage(mat, null);
+    }
+
+    /** @param reuse image to fill, if it has the same size and pixel format; null - new image */
+    public static BufferedImage toImage(Mat mat, BufferedImage reuse) {
+        BufferedImage img = toImageFast(mat, reuse);
         if (img == null)
             img = toImageUniversal(mat);
         return img;
     }
 
-    private static BufferedImage toImageFast(Mat mat) {
-        int channels = mat.channels();
-        switch (channels) {
-        case 1: return toImageFast1Channel(mat);
-        case 3: return toImageFast3Channel(mat);
-        case 4: return toImageFast4Channel(mat);
-        default:
-            logger.warn("OpenCvHelper::toImageFast: Try add for Mat::channels == {}", channels);
-            return null;
-        }
+    /** count of conversions of unsupported Mat types through the PNG codec, since the start of application */
+    public static long getUniversalConversionCount() {
+        return universalConversions.get();
     }
 
-    private static BufferedImage toImageFast1Channel(Mat mat) {
-        int depth = CvType.depth(mat.type());
+    private static BufferedImage toImageFast(Mat mat, BufferedImage reuse) {
+        int w = mat.cols();
+        int h = mat.rows();
+        int channels = mat.channels();
+        int depth = mat.depth();
         switch (depth) {
-        case CvType.CV_8U: {
-                byte[] matBuff = new byte[mat.cols() * mat.rows() * (int)mat.elemSize()];
-                mat.get(0, 0, matBuff);
-
-                BufferedImage image = new BufferedImage(mat.width(), mat.height(), BufferedImage.TYPE_BYTE_GRAY);
-                byte[] imgBuff = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
-                assert imgBuff.length == matBuff.length;
-                System.arraycopy(matBuff, 0, imgBuff, 0, imgBuff.length);
+        case CvType.CV_8U:
+            switch (channels) {
+            case 1: {
+                    BufferedImage image = prepareImage(reuse, w, h, BufferedImage.TYPE_BYTE_GRAY);
+                    mat.get(0, 0, ((DataBufferByte)image.getRaster().getDataBuffer()).getData());
+                    return image;
+                }
+            case 3: {
+                    BufferedImage image = prepareImage(reuse, w, h, BufferedImage.TYPE_3BYTE_BGR);
+                    mat.get(0, 0, ((DataBufferByte)image.getRaster().getDataBuffer()).getData());
+                    return image;
+                }
+            case 4: {
+                    // BGRA -> ABGR
+                    BufferedImage image = prepareImage(reuse, w, h, BufferedImage.TYPE_4BYTE_ABGR);
+                    Mat abgr = scratchMat.get();
+                    abgr.create(h, w, CvType.CV_8UC4);
+                    Core.mixChannels(Collections.singletonList(mat), Collections.singletonList(abgr), new MatOfInt(3,0, 0,1, 1,2, 2,3));
+                    abgr.get(0, 0, ((DataBufferByte)image.getRaster().getDataBuffer()).getData());
+                    return image;
+                }
+            default:
+                break;
+            }
+            break;
+        case CvType.CV_16U:
+            if (channels == 1) {
+                BufferedImage image = prepareImage(reuse, w, h, BufferedImage.TYPE_USHORT_GRAY);
+                mat.get(0, 0, ((DataBufferUShort)image.getRaster().getDataBuffer()).getData());
+                return image;
+            }
+            if ((channels == 3) || (channels == 4)) {
+                BufferedImage image = prepareInterleavedImage(reuse, w, h, DataBuffer.TYPE_USHORT, channels);
+                mat.get(0, 0, ((DataBufferUShort)image.getRaster().getDataBuffer()).getData());
                 return image;
             }
+            break;
+        case CvType.CV_32F:
+            if ((channels == 1) || (channels == 3) || (channels == 4)) {
+                // values are expected in the range [0..1]
+                BufferedImage image = prepareInterleavedImage(reuse, w, h, DataBuffer.TYPE_FLOAT, channels);
+                mat.get(0, 0, ((DataBufferFloat)image.getRaster().getDataBuffer()).getData());
+                return image;
+            }
+            break;
         default:
-            logger.warn("OpenCvHelper::toImageFast1Channel: Try add for depth == {}", depth);
-            return null;
+            break;
         }
+        logger.warn("OpenCvHelper::toImageFast: Try add for depth={}, channels={}", depth, channels);
+        return null;
     }
 
-    private static BufferedImage toImageFast3Channel(Mat mat) {
-        int depth = CvType.depth(mat.type());
-        switch (depth) {
-        case CvType.CV_8U: {
-                byte[] matBuff = new byte[mat.cols() * mat.rows() * (int)mat.elemSize()];
-                mat.get(0, 0, matBuff);
-
-                BufferedImage image = new BufferedImage(mat.width(), mat.height(), BufferedImage.TYPE_3BYTE_BGR);
-                byte[] imgBuff = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
-                assert imgBuff.length == matBuff.length;
-                System.arraycopy(matBuff, 0, imgBuff, 0, imgBuff.length);
-                return image;
-            }
-        default:
-            logger.warn("OpenCvHelper::toImageFast3Channel: Try add for depth == {}", depth);
-            return null;
+    private static BufferedImage prepareImage(BufferedImage reuse, int w, int h, int imageType) {
+        if ((reuse != null) &&
+            (reuse.getType() == imageType) &&
+            (reuse.getWidth() == w) &&
+            (reuse.getHeight() == h) &&
+            isWholeRaster(reuse.getRaster()))
+        {
+            return reuse;
+        }
+        return new BufferedImage(w, h, imageType);
+    }
+
+    /** image with the BGR(A) channels order of Mat (for the depths that have no predefined BufferedImage type) */
+    private static BufferedImage prepareInterleavedImage(BufferedImage reuse, int w, int h, int dataType, int channels) {
+        if ((reuse != null) &&
+            (reuse.getWidth() == w) &&
+            (reuse.getHeight() == h) &&
+            isInterleavedBgr(reuse, dataType, channels))
+        {
+            return reuse;
+        }
+
+        boolean hasAlpha = (channels == 4);
+        ColorModel cm = new ComponentColorModel(
+            ColorSpace.getInstance((channels == 1) ? ColorSpace.CS_GRAY : ColorSpace.CS_sRGB),
+            hasAlpha,
+            false,
+            hasAlpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE,
+            dataType);
+        SampleModel sm = new PixelInterleavedSampleModel(dataType, w, h, channels, w * channels, BGR_BAND_OFFSETS[channels]);
+        return new BufferedImage(cm, Raster.createWritableRaster(sm, null), false, null);
+    }
+
+    /** raster is not a sub-image, and has the single bank of data */
+    private static boolean isWholeRaster(WritableRaster raster) {
+        DataBuffer db = raster.getDataBuffer();
+        return (raster.getSampleModelTranslateX() == 0) &&
+               (raster.getSampleModelTranslateY() == 0) &&
+               (db.getNumBanks() == 1) &&
+               (db.getOffset() == 0);
+    }
+
+    /** image data can be copied to/from Mat as is */
+    private static boolean isInterleavedBgr(BufferedImage image, int dataType, int channels) {
+        if ((channels < 1) || (channels > 4) || (channels == 2))
+            return false;
+        if (!(image.getColorModel() instanceof ComponentColorModel) || image.isAlphaPremultiplied())
+            return false;
+
+        WritableRaster raster = image.getRaster();
+        if ((raster.getDataBuffer().getDataType() != dataType) ||
+            (raster.getNumBands() != channels) ||
+            !isWholeRaster(raster) ||
+            !(raster.getSampleModel() instanceof PixelInterleavedSampleModel))
+        {
+            return false;
         }
+
+        PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel)raster.getSampleModel();
+        return (sm.getPixelStride() == channels) &&
+               (sm.getScanlineStride() == image.getWidth() * channels) &&
+               Arrays.equals(sm.getBandOffsets(), BGR_BAND_OFFSETS[channels]);
     }
 
-    private static BufferedImage toImageFast4Channel(Mat mat) {
-        int depth = CvType.depth(mat.type());
-//        switch (depth) {
-//        case CvType.CV_8U: {
-//                System.err.println("OpenCvHelper::toImageFast4Channel: TODO: Don`t verified: depth CvType.CV_8U");
-//                byte[] matBuff = new byte[mat.cols() * mat.rows() * (int)mat.elemSize()];
-//                mat.get(0, 0, matBuff);
-//
-//                BufferedImage image = new BufferedImage(mat.width(), mat.height(), BufferedImage.TYPE_4BYTE_ABGR);
-//                byte[] imgBuff = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
-//                assert imgBuff.length == matBuff.length;
-//                System.arraycopy(matBuff, 0, imgBuff, 0, imgBuff.length);
-//
-////                //  R <-> B
-////                byte tmp;
-////                for (int i = 0; i < imgBuff.length; i += 4) {
-////                    tmp = imgBuff[i + 3];
-////                    imgBuff[i + 0] = imgBuff[i + 1];
-////                    imgBuff[i + 1] = imgBuff[i + 2];
-////                    imgBuff[i + 2] = tmp;
-////                    imgBuff[i + 3] = tmp;
-////                }
-//
-//                return image;
-//            }
-//        default:
-            logger.warn("OpenCvHelper::toImageFast4Channel: Try add for depth == {}", depth);
-            return null;
-//        }
-    }
-
-    private static Mat fromImageFast(BufferedImage image) {
+    private static void fromImageFast(BufferedImage image, Mat dst) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        WritableRaster raster = image.getRaster();
         int imageType = image.getType();
         switch (imageType) {
-        case BufferedImage.TYPE_INT_RGB: {
-                Mat mat = new Mat(image.getHeight(), image.getWidth(), CvType.CV_8UC3);
-                DataBufferInt intBuff = (DataBufferInt)image.getRaster().getDataBuffer();
-                int[] bufferFrom = intBuff.getData();
-                byte[] bufferTo = new byte[image.getWidth() * image.getHeight() * (int)mat.elemSize()];
-                assert (bufferFrom.length * 3) == bufferTo.length;
-                int tmp;
-                for (int i = 0, j = 0; i < bufferFrom.length; i++) {
-                    tmp = bufferFrom[i];
-                    bufferTo[j++] = (byte)((tmp >>  0) & 0xFF);
-                    bufferTo[j++] = (byte)((tmp >>  8) & 0xFF);
-                    bufferTo[j++] = (byte)((tmp >> 16) & 0xFF);
-                }
-                mat.put(0, 0, bufferTo);
-                return mat;
+        case BufferedImage.TYPE_INT_RGB:
+            if (isWholeRaster(raster)) {
+                fromIntImage(image, dst, Imgproc.COLOR_BGRA2BGR);
+                return;
             }
-        case BufferedImage.TYPE_INT_ARGB: {
-                Mat mat = new Mat(image.getHeight(), image.getWidth(), CvType.CV_8UC4);
-                DataBufferInt intBuff = (DataBufferInt)image.getRaster().getDataBuffer();
-                int[] bufferFrom = intBuff.getData();
-                byte[] bufferTo = new byte[image.getWidth() * image.getHeight() * (int)mat.elemSize()];
-                assert (bufferFrom.length * 4) == bufferTo.length;
-                int tmp;
-                for (int i = 0, j = 0; i < bufferFrom.length; i++) {
-                    tmp = bufferFrom[i];
-                    bufferTo[j++] = (byte)((tmp >>  0) & 0xFF);
-                    bufferTo[j++] = (byte)((tmp >>  8) & 0xFF);
-                    bufferTo[j++] = (byte)((tmp >> 16) & 0xFF);
-                    bufferTo[j++] = (byte)((tmp >> 24) & 0xFF);
-                }
-                mat.put(0, 0, bufferTo);
-                return mat;
+            break;
+        case BufferedImage.TYPE_INT_BGR:
+            if (isWholeRaster(raster)) {
+                fromIntImage(image, dst, Imgproc.COLOR_RGBA2BGR);
+                return;
             }
-        case BufferedImage.TYPE_BYTE_GRAY: {
-                Mat mat = new Mat(image.getHeight(), image.getWidth(), CvType.CV_8UC1);
-                DataBufferByte byteBuff = (DataBufferByte)image.getRaster().getDataBuffer();
-                mat.put(0, 0, byteBuff.getData());
-                return mat;
+            break;
+        case BufferedImage.TYPE_INT_ARGB:
+            if (isWholeRaster(raster)) {
+                fromIntImage(image, dst, -1);
+                return;
             }
-        case BufferedImage.TYPE_3BYTE_BGR: {
-                logger.warn("OpenCvHelper::fromImage: TODO: Don`t verified: BufferedImage.TYPE_3BYTE_BGR");
-                Mat mat = new Mat(image.getHeight(), image.getWidth(), CvType.CV_8UC3);
-                mat.put(0, 0, ((DataBufferByte)image.getRaster().getDataBuffer()).getData());
-                return mat;
+            break;
+        case BufferedImage.TYPE_4BYTE_ABGR:
+            if (isWholeRaster(raster)) {
+                // ABGR -> BGRA
+                Mat abgr = scratchMat.get();
+                abgr.create(h, w, CvType.CV_8UC4);
+                abgr.put(0, 0, ((DataBufferByte)raster.getDataBuffer()).getData());
+                dst.create(h, w, CvType.CV_8UC4);
+                Core.mixChannels(Collections.singletonList(abgr), Collections.singletonList(dst), new MatOfInt(1,0, 2,1, 3,2, 0,3));
+                return;
             }
+            break;
         default:
-            logger.warn("OpenCvHelper::fromImage: Try add for imageType={}", imageType);
-            return null;
+            break;
+        }
+
+        int channels = raster.getNumBands();
+        if (isInterleavedBgr(image, DataBuffer.TYPE_BYTE, channels)) {
+            // TYPE_BYTE_GRAY, TYPE_3BYTE_BGR, ...
+            dst.create(h, w, CvType.CV_8UC(channels));
+            dst.put(0, 0, ((DataBufferByte)raster.getDataBuffer()).getData());
+            return;
+        }
+        if (isInterleavedBgr(image, DataBuffer.TYPE_USHORT, channels)) {
+            // TYPE_USHORT_GRAY, ...
+            dst.create(h, w, CvType.CV_16UC(channels));
+            dst.put(0, 0, ((DataBufferUShort)raster.getDataBuffer()).getData());
+            return;
+        }
+        if (isInterleavedBgr(image, DataBuffer.TYPE_FLOAT, channels)) {
+            dst.create(h, w, CvType.CV_32FC(channels));
+            dst.put(0, 0, ((DataBufferFloat)raster.getDataBuffer()).getData());
+            return;
+        }
+
+        // indexed, packed, premultiplied, sub-images...: draw to the supported type
+        logger.trace("OpenCvHelper::fromImageFast: redraw imageType={}", imageType);
+        BufferedImage tmp = new BufferedImage(w, h, image.getColorModel().hasAlpha() ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = tmp.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
         }
+        fromImageFast(tmp, dst);
     }
 
-    private static Mat fromImageUniversal(BufferedImage image) {
-        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-            ImageIO.write(image, "png", byteArrayOutputStream);
-            byteArrayOutputStream.flush();
-            return Imgcodecs.imdecode(new MatOfByte(byteArrayOutputStream.toByteArray()), Imgcodecs.IMREAD_UNCHANGED);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
+    /** TYPE_INT_* image: the pixels are copied as is to BGRA (little-endian) Mat, then converted by OpenCV
+     * @param cvtColorCode color conversion code; -1 - without conversion */
+    private static void fromIntImage(BufferedImage image, Mat dst, int cvtColorCode) {
+        int[] data = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        fromIntPixels(data, image.getWidth(), image.getHeight(), dst, cvtColorCode);
+    }
+
+    /** Copy pixels in the layout of TYPE_INT_ARGB / TYPE_INT_RGB (0xAARRGGBB) to Mat
+     * @param cvtColorCode color conversion code from BGRA; -1 - without conversion (CV_8UC4) */
+    public static void fromIntPixels(int[] pixels, int width, int height, Mat dst, int cvtColorCode) {
+        ByteBuffer buff = getScratchBuffer(pixels.length * 4);
+        buff.asIntBuffer().put(pixels);
+
+        Mat bgra = new Mat(height, width, CvType.CV_8UC4, buff); // without copying
+        try {
+            if (cvtColorCode < 0)
+                bgra.copyTo(dst);
+            else
+                Imgproc.cvtColor(bgra, dst, cvtColorCode);
+        } finally {
+            bgra.release();
+        }
+    }
+
+    /** Copy pixels of 8-bit Mat (gray, BGR or BGRA) to the layout of TYPE_INT_ARGB / TYPE_INT_RGB (0xAARRGGBB) */
+    public static void toIntPixels(Mat mat, int[] pixels) {
+        if (mat.depth() != CvType.CV_8U)
+            throw new IllegalArgumentException("Unsupported depth of Mat: " + mat);
+
+        ByteBuffer buff = getScratchBuffer(pixels.length * 4);
+        Mat bgra = new Mat(mat.rows(), mat.cols(), CvType.CV_8UC4, buff); // without copying
+        try {
+            switch (mat.channels()) {
+            case 1: Imgproc.cvtColor(mat, bgra, Imgproc.COLOR_GRAY2BGRA); break;
+            case 3: Imgproc.cvtColor(mat, bgra, Imgproc.COLOR_BGR2BGRA ); break;
+            case 4: mat.copyTo(bgra); break;
+            default:
+                throw new IllegalArgumentException("Unsupported channels of Mat: " + mat);
+            }
+        } finally {
+            bgra.release();
+        }
+        buff.asIntBuffer().get(pixels);
+    }
+
+    private static ByteBuffer getScratchBuffer(int size) {
+        ByteBuffer[] holder = scratchBuffer.get();
+        ByteBuffer buff = holder[0];
+        if ((buff == null) || (buff.capacity() < size)) {
+            buff = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+            holder[0] = buff;
         }
+        buff.clear();
+        return buff;
     }
 
     private static BufferedImage toImageUniversal(Mat mat) {
+        universalConversions.incrementAndGet();
         MatOfByte mob = new MatOfByte();
         Imgcodecs.imencode(".png", mat, mob);
         try (InputStream in = new ByteArrayInputStream(mob.toArray())) {
@@ -0,0 +1,206 @@
+package ksn.imgusage.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.opencv.core.Rect;
+
+/** Static 2-D index of items by their rectangles: uniform grid over top-left corners of the rectangles.
+ * <br> The rectangles much larger than the cell (a page-sized region among symbols) are not in the grid:
+ *      they are kept in a separate small list, scanned by each query.
+ * <br> Answers containment and intersection queries without the full scan;
+ *      the found items are returned in the order of the source list (as the full scan does).
+ * <br> Immutable: the rectangles of items must not be changed after the index is built. */
+public final class RectIndex<T> {
+
+    /** cells per item, at most */
+    private static final int MAX_CELLS_PER_ITEM = 4;
+    /** the rectangle is large if its width or height is greater than this count of cells */
+    private static final int LARGE_ITEM_CELLS = 4;
+
+    private final List<T> items;
+    private final int[] left;
+    private final int[] top;
+    private final int[] right;
+    private final int[] bottom;
+
+    private final int originX;
+    private final int originY;
+    private final int cellW;
+    private final int cellH;
+    private final int cols;
+    private final int rows;
+    /** items of the cell c: cellItems[cellStart[c] .. cellStart[c+1]), in ascending order */
+    private final int[] cellStart;
+    private final int[] cellItems;
+    /** large items: not in the grid */
+    private final int[] largeItems;
+    /** max size of rectangles in the grid: for intersection queries */
+    private final int maxW;
+    private final int maxH;
+
+    public RectIndex(List<T> items, Function<T, Rect> position) {
+        int n = items.size();
+        this.items = new ArrayList<>(items);
+        left   = new int[n];
+        top    = new int[n];
+        right  = new int[n];
+        bottom = new int[n];
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        long sumW = 0, sumH = 0;
+        for (int i = 0; i < n; ++i) {
+            Rect rc = position.apply(items.get(i));
+            left  [i] = rc.x;
+            top   [i] = rc.y;
+            right [i] = rc.x + rc.width;
+            bottom[i] = rc.y + rc.height;
+            minX = Math.min(minX, rc.x);
+            minY = Math.min(minY, rc.y);
+            maxX = Math.max(maxX, rc.x);
+            maxY = Math.max(maxY, rc.y);
+            sumW += rc.width;
+            sumH += rc.height;
+        }
+
+        if (n == 0) {
+            originX = originY = 0;
+            cellW = cellH = 1;
+            cols = rows = 1;
+        } else {
+            originX = minX;
+            originY = minY;
+            // cell ~ average rectangle, but not too many cells
+            int cw = (int)Math.max(1, sumW / n);
+            int ch = (int)Math.max(1, sumH / n);
+            long spanX = (long)maxX - minX + 1;
+            long spanY = (long)maxY - minY + 1;
+            while (((spanX + cw - 1) / cw) * ((spanY + ch - 1) / ch) > (long)MAX_CELLS_PER_ITEM * n + 16) {
+                cw *= 2;
+                ch *= 2;
+            }
+            cellW = cw;
+            cellH = ch;
+            cols = (int)((spanX + cw - 1) / cw);
+            rows = (int)((spanY + ch - 1) / ch);
+        }
+
+        // large items are scanned always; the others widen the candidate range of intersection queries by their max size
+        boolean[] large = new boolean[n];
+        int largeCnt = 0;
+        int mw = 0, mh = 0;
+        for (int i = 0; i < n; ++i) {
+            int w = right [i] - left[i];
+            int h = bottom[i] - top [i];
+            if ((w > (long)LARGE_ITEM_CELLS * cellW) || (h > (long)LARGE_ITEM_CELLS * cellH)) {
+                large[i] = true;
+                ++largeCnt;
+            } else {
+                mw = Math.max(mw, w);
+                mh = Math.max(mh, h);
+            }
+        }
+        maxW = mw;
+        maxH = mh;
+        largeItems = new int[largeCnt];
+
+        // counting sort of items by cells: item indices in each cell stay ascending
+        cellStart = new int[cols * rows + 1];
+        int[] cellOf = new int[n];
+        for (int i = 0, k = 0; i < n; ++i) {
+            if (large[i]) {
+                largeItems[k++] = i;
+                continue;
+            }
+            cellOf[i] = cellRow(top[i]) * cols + cellCol(left[i]);
+            ++cellStart[cellOf[i] + 1];
+        }
+        for (int c = 0; c < cols * rows; ++c)
+            cellStart[c + 1] += cellStart[c];
+        cellItems = new int[n - largeCnt];
+        int[] fill = Arrays.copyOf(cellStart, cols * rows);
+        for (int i = 0; i < n; ++i)
+            if (!large[i])
+                cellItems[fill[cellOf[i]]++] = i;
+    }
+
+    /** Index of the rectangles themselves: the items are their positions in the list (0 .. rects.size()-1) */
+    public static RectIndex<Integer> ofRects(List<Rect> rects) {
+        List<Integer> indices = new ArrayList<>(rects.size());
+        for (int i = 0; i < rects.size(); ++i)
+            indices.add(i);
+        return new RectIndex<>(indices, rects::get);
+    }
+
+    private int cellCol(int x) {
+        return Math.max(0, Math.min(cols - 1, (int)(((long)x - originX) / cellW)));
+    }
+
+    private int cellRow(int y) {
+        return Math.max(0, Math.min(rows - 1, (int)(((long)y - originY) / cellH)));
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /** items whose rectangles are inside of <code>own</code> (see {@link GeomHelper#isInside}) */
+    public List<T> findInside(Rect own) {
+        int r = own.x + own.width;
+        int b = own.y + own.height;
+        return collect(own.x, own.y, r, b, i -> (left[i] >= own.x) && (top[i] >= own.y) && (right[i] <= r) && (bottom[i] <= b));
+    }
+
+    /** items whose rectangles are intersected with <code>rc</code> (see {@link GeomHelper#isIntersected}) */
+    public List<T> findIntersected(Rect rc) {
+        int r = rc.x + rc.width;
+        int b = rc.y + rc.height;
+        // the top-left corner of the intersected rectangle (in the grid) is at most max size to the left/top of rc
+        return collect(rc.x - maxW, rc.y - maxH, r, b, i -> (Math.max(left[i], rc.x) < Math.min(right[i], r)) && (Math.max(top[i], rc.y) < Math.min(bottom[i], b)));
+    }
+
+    private interface IndexPredicate {
+        boolean test(int index);
+    }
+
+    /** @param x0 .. y1 - range of top-left corners of the candidates */
+    private List<T> collect(int x0, int y0, int x1, int y1, IndexPredicate predicate) {
+        if (items.isEmpty() || (x1 < originX) || (y1 < originY))
+            return new ArrayList<>();
+
+        int c0 = cellCol(x0), c1 = cellCol(x1);
+        int r0 = cellRow(y0), r1 = cellRow(y1);
+        int[] found = new int[16];
+        int cnt = 0;
+        for (int row = r0; row <= r1; ++row)
+            for (int col = c0; col <= c1; ++col) {
+                int cell = row * cols + col;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; ++k) {
+                    int i = cellItems[k];
+                    if (!predicate.test(i))
+                        continue;
+                    if (cnt == found.length)
+                        found = Arrays.copyOf(found, cnt * 2);
+                    found[cnt++] = i;
+                }
+            }
+        for (int i : largeItems) {
+            if (!predicate.test(i))
+                continue;
+            if (cnt == found.length)
+                found = Arrays.copyOf(found, cnt * 2);
+            found[cnt++] = i;
+        }
+
+        // in the order of the source list
+        Arrays.sort(found, 0, cnt);
+        List<T> res = new ArrayList<>(cnt);
+        for (int k = 0; k < cnt; ++k)
+            res.add(items.get(found[k]));
+        return res;
+    }
+
+}
@@ -0,0 +1,242 @@
+package ksn.imgusage.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+/** Region algebra over the union of rectangles, without rasterization of the whole image */
+public final class RectUnion {
+    private RectUnion() {}
+
+    /** connected component of the union: indices of its rectangles and the bounds (inclusive pixel coordinates) */
+    private static class Component {
+        final List<Integer> rects = new ArrayList<>();
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        /** the first pixel in raster order */
+        int startX = Integer.MAX_VALUE;
+        boolean inHole;
+    }
+
+    /** The same as bounding rects of the external contours ({@link org.opencv.imgproc.Imgproc#RETR_EXTERNAL}) of the mask,
+     * where the rectangles are filled and dilated by the rectangular kernel (anchor in the center):
+     * <pre>
+     *   mask = zeros(imageSize); for (rc : rects) mask(rc) = 255;
+     *   morphologyEx(mask, mask, MORPH_DILATE, ones(dilateY, dilateX));
+     *   findContours(mask, contours, RETR_EXTERNAL, ...) -&gt; boundingRect
+     * </pre>
+     * Components are 8-connected; the component inside a hole of other one has no external contour.
+     * <br> Order: reverse raster order of the first pixels of components, as findContours returns them. */
+    public static List<Rect> dilatedComponents(List<Rect> rects, Size imageSize, int dilateX, int dilateY) {
+        if ((dilateX < 1) || (dilateY < 1)) {
+            // empty kernel: OpenCV uses 3x3
+            dilateX = 3;
+            dilateY = 3;
+        }
+        int maxX = (int)imageSize.width  - 1;
+        int maxY = (int)imageSize.height - 1;
+        // dilation of rect [x0..x1] by kernel k with anchor k/2: [x0 - (k - 1 - k/2) .. x1 + k/2]
+        int growL = dilateX - 1 - dilateX / 2;
+        int growR = dilateX / 2;
+        int growT = dilateY - 1 - dilateY / 2;
+        int growB = dilateY / 2;
+
+        List<Rect> dilated = new ArrayList<>(rects.size());
+        for (Rect rc : rects) {
+            // clip to the image, then dilate
+            int l = Math.max(0   , rc.x);
+            int t = Math.max(0   , rc.y);
+            int r = Math.min(maxX, rc.x + rc.width  - 1);
+            int b = Math.min(maxY, rc.y + rc.height - 1);
+            if ((l > r) || (t > b))
+                continue;
+            l = Math.max(0   , l - growL);
+            t = Math.max(0   , t - growT);
+            r = Math.min(maxX, r + growR);
+            b = Math.min(maxY, b + growB);
+            dilated.add(new Rect(l, t, r - l + 1, b - t + 1));
+        }
+        int n = dilated.size();
+
+        // union-find of overlapped or 8-adjacent rects
+        int[] parent = new int[n];
+        for (int i = 0; i < n; ++i)
+            parent[i] = i;
+        RectIndex<Integer> index = RectIndex.ofRects(dilated);
+        for (int i = 0; i < n; ++i) {
+            Rect rc = dilated.get(i);
+            for (int j : index.findIntersected(new Rect(rc.x - 1, rc.y - 1, rc.width + 2, rc.height + 2)))
+                union(parent, i, j);
+        }
+
+        Component[] byRoot = new Component[n];
+        List<Component> components = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            int root = find(parent, i);
+            Component c = byRoot[root];
+            if (c == null) {
+                c = byRoot[root] = new Component();
+                components.add(c);
+            }
+            Rect rc = dilated.get(i);
+            c.rects.add(i);
+            if ((rc.y < c.top) || ((rc.y == c.top) && (rc.x < c.startX)))
+                c.startX = rc.x;
+            c.left   = Math.min(c.left  , rc.x);
+            c.top    = Math.min(c.top   , rc.y);
+            c.right  = Math.max(c.right , rc.x + rc.width  - 1);
+            c.bottom = Math.max(c.bottom, rc.y + rc.height - 1);
+        }
+
+        // components inside of holes: only candidates with the bounds strictly inside the bounds of another component
+        RectIndex<Component> compIndex = new RectIndex<>(components, RectUnion::bounds);
+        for (Component outer : components) {
+            List<Component> inner = compIndex.findInside(bounds(outer));
+            inner.remove(outer);
+            if (inner.isEmpty())
+                continue;
+            OuterBackground background = new OuterBackground(outer, dilated);
+            for (Component c : inner)
+                if (!background.isReachable(c.startX, c.top))
+                    c.inHole = true;
+        }
+
+        components.removeIf(c -> c.inHole);
+        components.sort(Comparator.<Component>comparingInt(c -> c.top)
+                                  .thenComparingInt(c -> c.startX)
+                                  .reversed());
+
+        List<Rect> res = new ArrayList<>(components.size());
+        for (Component c : components)
+            res.add(bounds(c));
+        return res;
+    }
+
+    private static Rect bounds(Component c) {
+        return new Rect(c.left, c.top, c.right - c.left + 1, c.bottom - c.top + 1);
+    }
+
+    /** Background of the component, 4-connected to the outside (the bounds of the component plus 1 pixel border).
+     * <br> Flood fill by intervals, not pixels: the rows between the edges of rectangles form a band
+     *      with the same background intervals, which are connected vertically inside the band. */
+    private static class OuterBackground {
+        /** band b: rows [bandY[b] .. bandY[b+1]); its intervals: [start[b] .. start[b+1]) */
+        final int[] bandY;
+        final int[] start;
+        /** background intervals (inclusive pixel coordinates), sorted by x inside the band */
+        final int[] intervalL;
+        final int[] intervalR;
+        final boolean[] reachable;
+
+        OuterBackground(Component c, List<Rect> dilated) {
+            int[] ys = new int[2 * c.rects.size() + 2];
+            int cnt = 0;
+            ys[cnt++] = c.top - 1;
+            ys[cnt++] = c.bottom + 2;
+            for (int i : c.rects) {
+                Rect rc = dilated.get(i);
+                ys[cnt++] = rc.y;
+                ys[cnt++] = rc.y + rc.height;
+            }
+            Arrays.sort(ys, 0, cnt);
+            int bands = 0;
+            for (int i = 0; i < cnt; ++i)
+                if ((bands == 0) || (ys[i] != ys[bands - 1]))
+                    ys[bands++] = ys[i];
+            bandY = Arrays.copyOf(ys, bands);
+            --bands;
+
+            List<Rect> byTop = new ArrayList<>(c.rects.size());
+            for (int i : c.rects)
+                byTop.add(dilated.get(i));
+            byTop.sort(Comparator.comparingInt(rc -> rc.y));
+
+            // sweep by bands: the rects covering the band, their spans merged, the gaps between them are the background
+            start = new int[bands + 1];
+            List<int[]> intervals = new ArrayList<>();
+            List<Rect> active = new ArrayList<>();
+            int next = 0;
+            for (int b = 0; b < bands; ++b) {
+                int y = bandY[b];
+                while ((next < byTop.size()) && (byTop.get(next).y <= y))
+                    active.add(byTop.get(next++));
+                active.removeIf(rc -> rc.y + rc.height <= y);
+                active.sort(Comparator.comparingInt(rc -> rc.x));
+
+                start[b] = intervals.size();
+                int x = c.left - 1; // the first background column not yet covered
+                for (Rect rc : active) {
+                    if (rc.x > x)
+                        intervals.add(new int[] { x, rc.x - 1 });
+                    x = Math.max(x, rc.x + rc.width);
+                }
+                intervals.add(new int[] { x, c.right + 1 }); // at least the border column
+            }
+            start[bands] = intervals.size();
+
+            int n = intervals.size();
+            intervalL = new int[n];
+            intervalR = new int[n];
+            for (int k = 0; k < n; ++k) {
+                intervalL[k] = intervals.get(k)[0];
+                intervalR[k] = intervals.get(k)[1];
+            }
+
+            // 4-connected: the intervals of the adjacent bands with a common column
+            reachable = new boolean[n];
+            int[] stack = new int[n];
+            int top = 0;
+            stack[top++] = 0; // the border row above the component
+            reachable[0] = true;
+            int[] bandOf = new int[n];
+            for (int b = 0; b < bands; ++b)
+                Arrays.fill(bandOf, start[b], start[b + 1], b);
+            while (top > 0) {
+                int k = stack[--top];
+                int b = bandOf[k];
+                for (int nb = b - 1; nb <= b + 1; nb += 2) {
+                    if ((nb < 0) || (nb >= bands))
+                        continue;
+                    for (int j = start[nb]; (j < start[nb + 1]) && (intervalL[j] <= intervalR[k]); ++j)
+                        if (!reachable[j] && (intervalR[j] >= intervalL[k])) {
+                            reachable[j] = true;
+                            stack[top++] = j;
+                        }
+                }
+            }
+        }
+
+        /** @return false - the pixel is in a hole of the component, or is the pixel of the component */
+        boolean isReachable(int x, int y) {
+            int b = Arrays.binarySearch(bandY, y);
+            if (b < 0)
+                b = -b - 2; // the band which contains the row
+            if ((b < 0) || (b >= start.length - 1))
+                return true; // outside of the bounds
+            for (int k = start[b]; k < start[b + 1]; ++k)
+                if ((intervalL[k] <= x) && (x <= intervalR[k]))
+                    return reachable[k];
+            return false;
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j) {
+        int ri = find(parent, i);
+        int rj = find(parent, j);
+        if (ri != rj)
+            parent[Math.max(ri, rj)] = Math.min(ri, rj);
+    }
+
+}
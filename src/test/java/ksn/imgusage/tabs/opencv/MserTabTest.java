@@ -0,0 +1,115 @@
+package ksn.imgusage.tabs.opencv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.features2d.MSER;
+import org.opencv.imgproc.Imgproc;
+
+public class MserTabTest {
+
+    static {
+        InitLib.loadOpenCV();
+    }
+
+    private static final int MAX_REGION_W = 60;
+    private static final int MAX_REGION_H = 40;
+    private static final double MAX_VARIATION = 0.25;
+    private static final int EDGE_BLUR_SIZE = 5;
+    private static final int MARGIN_X = (int)Math.ceil(MAX_REGION_W * (1 + MAX_VARIATION)) + EDGE_BLUR_SIZE + 1;
+    private static final int MARGIN_Y = (int)Math.ceil(MAX_REGION_H * (1 + MAX_VARIATION)) + EDGE_BLUR_SIZE + 1;
+
+    private static final Supplier<MSER> MSER_FACTORY = () -> MSER.create(
+            5,                             // delta
+            20,                            // min area
+            MAX_REGION_W * MAX_REGION_H,   // max area
+            MAX_VARIATION,
+            0.2,                           // min diversity
+            200,                           // max evolution
+            1.01,                          // area threshold
+            0.003,                         // min margin
+            EDGE_BLUR_SIZE);
+
+    /** text lines over the whole image: the symbols are cut by the tile seams */
+    private static Mat makeTextImage() {
+        Mat image = new Mat(900, 1200, CvType.CV_8UC1, new Scalar(0xFF));
+        for (int y = 30; y < image.rows(); y += 37)
+            Imgproc.putText(image,
+                            "The quick brown fox jumps over the lazy dog 0123456789 " + y,
+                            new Point((y % 50) - 40, y),
+                            Imgproc.FONT_HERSHEY_SIMPLEX,
+                            0.9,
+                            new Scalar(0),
+                            2,
+                            Imgproc.LINE_AA);
+        return image;
+    }
+
+    /** the regions of the symbols (filter #2 of MserTab), in the given order */
+    private static List<String> symbols(List<MatOfPoint> regions) {
+        return regions.stream()
+            .filter(region -> {
+                Rect rc = Imgproc.boundingRect(region);
+                return (rc.width <= MAX_REGION_W) && (rc.height <= MAX_REGION_H); })
+            .map(MserTabTest::toKey)
+            .collect(Collectors.toList());
+    }
+
+    /** the regions of the symbols, regardless of the order */
+    private static List<String> canonical(List<MatOfPoint> regions) {
+        List<String> keys = symbols(regions);
+        keys.sort(null);
+        return keys;
+    }
+
+    private static String toKey(MatOfPoint region) {
+        return Arrays.stream(region.toArray())
+            .map(p -> (int)p.y + ":" + (int)p.x)
+            .sorted()
+            .collect(Collectors.joining(" "));
+    }
+
+    @Test
+    public void tiledSameRegionsTest() {
+        Mat image = makeTextImage();
+
+        List<MatOfPoint> untiled = new ArrayList<>();
+        MSER_FACTORY.get().detectRegions(image, untiled, new MatOfRect());
+
+        List<MatOfPoint> tiled = MserTab.detectRegionsTiled(image, MSER_FACTORY, MARGIN_X, MARGIN_Y, 3);
+        assertNotNull(tiled);
+
+        List<String> expected = canonical(untiled);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, canonical(tiled));
+    }
+
+    @Test
+    public void tiledOrderTest() {
+        Mat image = makeTextImage();
+
+        List<MatOfPoint> tiled2 = MserTab.detectRegionsTiled(image, MSER_FACTORY, MARGIN_X, MARGIN_Y, 2);
+        List<MatOfPoint> tiled3 = MserTab.detectRegionsTiled(image, MSER_FACTORY, MARGIN_X, MARGIN_Y, 3);
+        assertNotNull(tiled2);
+        assertNotNull(tiled3);
+
+        // the order does not depend on the grid
+        assertEquals(symbols(tiled2), symbols(tiled3));
+    }
+
+}
@@ -0,0 +1,39 @@
+package ksn.imgusage.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Rect;
+
+public class GeomHelperTest {
+
+    @Test
+    public void iouTest() {
+        Rect rc = new Rect(0, 0, 10, 10);
+        assertEquals(1.0, GeomHelper.iou(rc, rc), 1e-9);
+        assertEquals(0.0, GeomHelper.iou(rc, new Rect(10, 0, 10, 10)), 1e-9); // touched only
+        assertEquals(0.0, GeomHelper.iou(rc, new Rect(20, 20, 5, 5)), 1e-9);
+        assertEquals(50.0 / 150, GeomHelper.iou(rc, new Rect(5, 0, 10, 10)), 1e-9);
+        assertEquals(25.0 / 100, GeomHelper.iou(rc, new Rect(0, 0, 5, 5)), 1e-9); // inside
+    }
+
+    @Test
+    public void nonMaxSuppressionTest() {
+        List<Rect> rects = Arrays.asList(
+            new Rect(  0, 0, 10, 10),
+            new Rect(  1, 1, 10, 10), // the same object as 0, better score
+            new Rect(100, 0, 10, 10),
+            new Rect(  6, 0, 10, 10)  // overlapped with 1 by IoU 45/155 only
+        );
+        double[] scores = { 3, 5, 1, 2 };
+
+        assertEquals(Arrays.asList(rects.get(1), rects.get(3), rects.get(2)),
+                     GeomHelper.nonMaxSuppression(rects, scores, 0.3));
+        assertEquals(Arrays.asList(rects.get(1), rects.get(2)),
+                     GeomHelper.nonMaxSuppression(rects, scores, 0.1));
+    }
+
+}
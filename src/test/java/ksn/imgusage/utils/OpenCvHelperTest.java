@@ -0,0 +1,88 @@
+package ksn.imgusage.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+
+import Catalano.Imaging.FastBitmap;
+import ksn.imgusage.tabs.opencv.InitLib;
+
+public class OpenCvHelperTest {
+
+    private static final Logger logger = LoggerFabric.getLogger(OpenCvHelperTest.class);
+
+    static {
+        InitLib.loadOpenCV();
+    }
+
+    @Test
+    public void matRoundTripTest() {
+        long universalBefore = OpenCvHelper.getUniversalConversionCount();
+        int[] types = {
+            CvType.CV_8UC1 , CvType.CV_8UC3 , CvType.CV_8UC4,
+            CvType.CV_16UC1, CvType.CV_16UC3, CvType.CV_16UC4,
+            CvType.CV_32FC1, CvType.CV_32FC3, CvType.CV_32FC4
+        };
+        for (int type : types) {
+            Mat src = new Mat(31, 17, type);
+            Core.randu(src, 0, (CvType.depth(type) == CvType.CV_32F) ? 1 : 255);
+
+            BufferedImage img = OpenCvHelper.toImage(src);
+            Mat dst = OpenCvHelper.fromImage(img);
+            logger.debug("type={}: imageType={}", CvType.typeToString(type), img.getType());
+
+            assertEquals(src.type(), dst.type(), CvType.typeToString(type));
+            assertEquals(0, Core.norm(src, dst, Core.NORM_INF), CvType.typeToString(type));
+
+            // reuse of destination buffers
+            Mat dst2 = new Mat();
+            assertEquals(img, OpenCvHelper.toImage(src, img));
+            assertEquals(dst2, OpenCvHelper.fromImage(img, dst2));
+            assertEquals(0, Core.norm(src, dst2, Core.NORM_INF), CvType.typeToString(type));
+        }
+        assertEquals(universalBefore, OpenCvHelper.getUniversalConversionCount());
+    }
+
+    @Test
+    public void intImageTest() {
+        int[] imageTypes = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_BYTE_INDEXED };
+        for (int imageType : imageTypes) {
+            BufferedImage img = new BufferedImage(3, 2, imageType);
+            img.setRGB(1, 1, 0xFF_10_20_30); // opaque; R=0x10, G=0x20, B=0x30
+
+            Mat mat = OpenCvHelper.fromImage(img);
+            double[] bgr = mat.get(1, 1);
+            logger.debug("imageType={}: mat={}", imageType, mat);
+            assertEquals(img.getColorModel().hasAlpha() ? 4 : 3, mat.channels());
+            if (imageType != BufferedImage.TYPE_BYTE_INDEXED) { // indexed: nearest color of palette
+                assertEquals(0x30, (int)bgr[0]);
+                assertEquals(0x20, (int)bgr[1]);
+                assertEquals(0x10, (int)bgr[2]);
+            }
+            if (mat.channels() == 4)
+                assertEquals(0xFF, (int)bgr[3]);
+        }
+    }
+
+    @Test
+    public void fastBitmapBridgeTest() {
+        for (int type : new int[] { CvType.CV_8UC1, CvType.CV_8UC3, CvType.CV_8UC4 }) {
+            Mat src = new Mat(31, 17, type);
+            Core.randu(src, 0, 255);
+
+            FastBitmap bmp = ImgHelper.toFastBitmap(src);
+            Mat dst = ImgHelper.toMat(bmp);
+            logger.debug("type={}: colorSpace={}", CvType.typeToString(type), bmp.getColorSpace());
+
+            assertEquals(src.type(), dst.type(), CvType.typeToString(type));
+            assertEquals(0, Core.norm(src, dst, Core.NORM_INF), CvType.typeToString(type));
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package ksn.imgusage.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Rect;
+import org.slf4j.Logger;
+
+public class RectIndexTest {
+
+    private static final Logger logger = LoggerFabric.getLogger(RectIndexTest.class);
+
+    @Test
+    public void sameAsFullScanTest() {
+        Random rnd = new Random(1);
+        for (int n : new int[] { 0, 1, 7, 500 }) {
+            List<Rect> rects = new ArrayList<>();
+            for (int i = 0; i < n; ++i) {
+                boolean big = rnd.nextInt(20) == 0;
+                rects.add(new Rect(rnd.nextInt(1000) - 100, rnd.nextInt(700) - 50,
+                                   rnd.nextInt(big ? 400 : 30), rnd.nextInt(big ? 300 : 40)));
+            }
+            RectIndex<Rect> index = new RectIndex<>(rects, rc -> rc);
+            logger.debug("n={}", n);
+
+            for (int q = 0; q < 200; ++q) {
+                Rect query = (!rects.isEmpty() && rnd.nextBoolean())
+                    ? rects.get(rnd.nextInt(rects.size()))
+                    : new Rect(rnd.nextInt(1200) - 200, rnd.nextInt(900) - 100, rnd.nextInt(300), rnd.nextInt(300));
+
+                assertEquals(rects.stream().filter(rc -> GeomHelper.isInside(query, rc)).collect(Collectors.toList()),
+                             index.findInside(query));
+                assertEquals(rects.stream().filter(rc -> GeomHelper.isIntersected(query, rc)).collect(Collectors.toList()),
+                             index.findIntersected(query));
+            }
+        }
+    }
+
+    @Test
+    public void largeRectsTest() {
+        // symbols, with a few page-sized and line-wide regions: not in the grid
+        Random rnd = new Random(2);
+        List<Rect> rects = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i)
+            rects.add(new Rect(rnd.nextInt(2000), rnd.nextInt(1500), 5 + rnd.nextInt(20), 10 + rnd.nextInt(20)));
+        rects.add(300, new Rect(0, 0, 2020, 1530));
+        rects.add(600, new Rect(10, 700, 2000, 30));
+        rects.add(900, new Rect(1000, 0, 25, 1500));
+        RectIndex<Rect> index = new RectIndex<>(rects, rc -> rc);
+
+        for (int q = 0; q < 500; ++q) {
+            Rect query = rnd.nextBoolean()
+                ? rects.get(rnd.nextInt(rects.size()))
+                : new Rect(rnd.nextInt(2100) - 50, rnd.nextInt(1600) - 50, rnd.nextInt(100), rnd.nextInt(100));
+
+            assertEquals(rects.stream().filter(rc -> GeomHelper.isInside(query, rc)).collect(Collectors.toList()),
+                         index.findInside(query));
+            assertEquals(rects.stream().filter(rc -> GeomHelper.isIntersected(query, rc)).collect(Collectors.toList()),
+                         index.findIntersected(query));
+        }
+    }
+
+    @Test
+    public void ofRectsTest() {
+        List<Rect> rects = new ArrayList<>();
+        rects.add(new Rect( 0,  0, 10, 10));
+        rects.add(new Rect(50, 50, 10, 10));
+        rects.add(new Rect( 5,  5, 10, 10));
+        RectIndex<Integer> index = RectIndex.ofRects(rects);
+
+        assertEquals(3, index.size());
+        List<Integer> expected = new ArrayList<>();
+        expected.add(0);
+        expected.add(2);
+        assertEquals(expected, index.findIntersected(new Rect(0, 0, 20, 20)));
+    }
+
+}
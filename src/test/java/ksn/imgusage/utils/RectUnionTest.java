@@ -0,0 +1,115 @@
+package ksn.imgusage.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.slf4j.Logger;
+
+public class RectUnionTest {
+
+    private static final Logger logger = LoggerFabric.getLogger(RectUnionTest.class);
+
+    @Test
+    public void sameAsRasterTest() {
+        Random rnd = new Random(1);
+        int w = 64, h = 48;
+        for (int test = 0; test < 300; ++test) {
+            List<Rect> rects = new ArrayList<>();
+            int n = rnd.nextInt(25);
+            for (int i = 0; i < n; ++i)
+                rects.add(new Rect(rnd.nextInt(w + 4) - 2, rnd.nextInt(h + 4) - 2, 1 + rnd.nextInt(10), 1 + rnd.nextInt(8)));
+            if (rnd.nextBoolean()) { // frame with the hole and the rect inside
+                rects.add(new Rect(10, 10, 30,  2));
+                rects.add(new Rect(10, 30, 30,  2));
+                rects.add(new Rect(10, 10,  2, 22));
+                rects.add(new Rect(38, 10,  2, 22));
+                rects.add(new Rect(24, 20,  1,  1));
+            }
+            int dilateX = 1 + rnd.nextInt(6);
+            int dilateY = 1 + rnd.nextInt(3);
+
+            List<Rect> expected = raster(rects, w, h, dilateX, dilateY);
+            List<Rect> actual = RectUnion.dilatedComponents(rects, new Size(w, h), dilateX, dilateY);
+            logger.trace("test={}: rects={}, components={}", test, rects.size(), actual.size());
+            assertEquals(expected, actual, "test " + test);
+        }
+    }
+
+    /** reference: dilate the raster mask, 8-connected components which touch the outer background */
+    private static List<Rect> raster(List<Rect> rects, int w, int h, int dilateX, int dilateY) {
+        boolean[][] mask = new boolean[h][w];
+        for (Rect rc : rects)
+            for (int y = Math.max(0, rc.y); y < Math.min(h, rc.y + rc.height); ++y)
+                for (int x = Math.max(0, rc.x); x < Math.min(w, rc.x + rc.width); ++x)
+                    mask[y][x] = true;
+
+        int ax = dilateX / 2, ay = dilateY / 2;
+        boolean[][] dilated = new boolean[h][w];
+        for (int y = 0; y < h; ++y)
+            for (int x = 0; x < w; ++x)
+                for (int j = 0; (j < dilateY) && !dilated[y][x]; ++j)
+                    for (int i = 0; i < dilateX; ++i) {
+                        int sx = x + i - ax, sy = y + j - ay;
+                        if ((sx >= 0) && (sy >= 0) && (sx < w) && (sy < h) && mask[sy][sx]) {
+                            dilated[y][x] = true;
+                            break;
+                        }
+                    }
+
+        // outer background: 4-connected to the outside of the image
+        boolean[][] outer = new boolean[h + 2][w + 2];
+        List<int[]> stack = new ArrayList<>();
+        stack.add(new int[] { 0, 0 });
+        outer[0][0] = true;
+        while (!stack.isEmpty()) {
+            int[] p = stack.remove(stack.size() - 1);
+            int[][] next = { { p[0] - 1, p[1] }, { p[0] + 1, p[1] }, { p[0], p[1] - 1 }, { p[0], p[1] + 1 } };
+            for (int[] q : next) {
+                if ((q[0] < 0) || (q[1] < 0) || (q[0] >= w + 2) || (q[1] >= h + 2) || outer[q[1]][q[0]])
+                    continue;
+                boolean fg = (q[0] >= 1) && (q[1] >= 1) && (q[0] <= w) && (q[1] <= h) && dilated[q[1] - 1][q[0] - 1];
+                if (fg)
+                    continue;
+                outer[q[1]][q[0]] = true;
+                stack.add(q);
+            }
+        }
+
+        List<Rect> res = new ArrayList<>();
+        boolean[][] labeled = new boolean[h][w];
+        for (int y = 0; y < h; ++y)
+            for (int x = 0; x < w; ++x) {
+                if (!dilated[y][x] || labeled[y][x])
+                    continue;
+                int l = x, t = y, r = x, b = y;
+                boolean external = false;
+                stack.add(new int[] { x, y });
+                labeled[y][x] = true;
+                while (!stack.isEmpty()) {
+                    int[] p = stack.remove(stack.size() - 1);
+                    l = Math.min(l, p[0]); r = Math.max(r, p[0]);
+                    t = Math.min(t, p[1]); b = Math.max(b, p[1]);
+                    for (int dy = -1; dy <= 1; ++dy)
+                        for (int dx = -1; dx <= 1; ++dx) {
+                            int qx = p[0] + dx, qy = p[1] + dy;
+                            if ((Math.abs(dx) + Math.abs(dy) == 1) && outer[qy + 1][qx + 1])
+                                external = true;
+                            if ((qx < 0) || (qy < 0) || (qx >= w) || (qy >= h) || !dilated[qy][qx] || labeled[qy][qx])
+                                continue;
+                            labeled[qy][qx] = true;
+                            stack.add(new int[] { qx, qy });
+                        }
+                }
+                if (external)
+                    res.add(0, new Rect(l, t, r - l + 1, b - t + 1)); // reverse raster order
+            }
+        return res;
+    }
+
+}